@@ -1,8 +1,10 @@
 package com.danielesegato.adme;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
@@ -12,14 +14,21 @@ import com.danielesegato.adme.config.ADMEEntityConfig;
 import com.danielesegato.adme.config.ADMEFieldConfig;
 import com.danielesegato.adme.config.ADMEIndexConstraintConfig;
 import com.danielesegato.adme.config.OnForeignUpdateDelete;
+import com.danielesegato.adme.config.SQLiteType;
+import com.danielesegato.adme.db.ADMEChangeLog;
+import com.danielesegato.adme.db.ADMEIdentityMap;
+import com.danielesegato.adme.db.ADMEOperationsBuilder;
 import com.danielesegato.adme.db.ADMESerializer;
 import com.danielesegato.adme.db.ADMESerializerMapping;
+import com.danielesegato.adme.db.ForeignRef;
 import com.danielesegato.adme.utils.SQLStringHelper;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -30,6 +39,10 @@ import java.util.Set;
 public class ADME {
 
     private static final String LOGTAG = InternalADMEConsts.LOGTAG;
+    /**
+     * Maximum number of variables in a SQLite statement before SQLite 3.32.
+     */
+    private static final int SQLITE_MAX_VARIABLE_NUMBER = 999;
 
     /**
      * Convert an entity row into it's Andoird {@link ContentValues} ready to use in an insert or update
@@ -111,17 +124,23 @@ public class ADME {
                 if (!columns.contains(fieldConfig.getColumnName())) {
                     continue;
                 }
-                final Field field;
-                final Object instance;
-                if (!fieldConfig.isForeign()) {
-                    field = fieldConfig.getJavaField();
-                    instance = entityRow;
+                final Object fieldValue;
+                if (fieldConfig.isForeignRef()) {
+                    final ForeignRef<?> foreignRef = (ForeignRef<?>) fieldConfig.getJavaField().get(entityRow);
+                    fieldValue = foreignRef != null ? foreignRef.getId() : null;
                 } else {
-                    field = fieldConfig.getForeignFieldConfig().getJavaField();
-                    instance = fieldConfig.getJavaField().get(entityRow);
+                    final Field field;
+                    final Object instance;
+                    if (!fieldConfig.isForeign()) {
+                        field = fieldConfig.getJavaField();
+                        instance = entityRow;
+                    } else {
+                        field = fieldConfig.getForeignFieldConfig().getJavaField();
+                        instance = fieldConfig.getJavaField().get(entityRow);
+                    }
+                    // TODO use get method if annotated like that?
+                    fieldValue = instance != null ? field.get(instance) : null;
                 }
-                // TODO use get method if annotated like that?
-                final Object fieldValue = instance != null ? field.get(instance) : null;
                 final ADMESerializer admeSerializer = fieldConfig.getADMESerializer();
                 admeSerializer.storeInContentValues(fieldConfig.getColumnName(), values, fieldValue, fieldConfig);
             }
@@ -191,9 +210,12 @@ public class ADME {
     public static
     @NonNull
     <T> T cursorToEntity(@NonNull Cursor cursor, @NonNull Class<T> clazz, @NonNull Set<String> columns) {
+        return cursorToEntity(cursor, newEntityInstance(clazz), columns);
+    }
+
+    private static <T> T newEntityInstance(@NonNull Class<T> clazz) {
         try {
-            T entity = clazz.newInstance();
-            return cursorToEntity(cursor, entity, columns);
+            return clazz.newInstance();
         } catch (InstantiationException e) {
             throw new RuntimeException(String.format("the instance for class %s cannot be created", clazz.getName()), e);
         } catch (IllegalAccessException e) {
@@ -219,6 +241,31 @@ public class ADME {
     public static
     @NonNull
     <T> T cursorToEntity(@NonNull Cursor cursor, @NonNull T entity, @NonNull Set<String> columns) {
+        return cursorToEntity(cursor, entity, columns, null);
+    }
+
+    /**
+     * Convert a {@link android.database.Cursor} into an Entity instance. Only the given set of columns will be read from the cursor.
+     * <p/>
+     * If the class of the entityRow is not annotated with {@link com.danielesegato.adme.annotation.ADMEEntity}
+     * this method will throw a RuntimeException.
+     * <p/>
+     * Any missing column will be ignored.
+     *
+     * @param cursor      The Cursor containing the data, it will not
+     *                    be cleared, it's the caller job to do so if you require it.
+     * @param entity      an instance of the entity, fields will be overridden)
+     * @param columns     The set of columns to extract from the Cursor, any missing column will be ignored.
+     * @param identityMap the instances of the foreign entities to share, the foreign fields with an
+     *                    INTEGER id get the instance of the map (created and added to the map the
+     *                    first time) or null if the foreign key is NULL; null to create a new
+     *                    instance for every foreign field
+     * @param <T>         the type of entity
+     * @return the Entity with the data extracted by the cursor
+     */
+    public static
+    @NonNull
+    <T> T cursorToEntity(@NonNull Cursor cursor, @NonNull T entity, @NonNull Set<String> columns, @Nullable ADMEIdentityMap identityMap) {
         final ADMEEntityConfig<T> entityConfig = ADMEConfigUtils.lookupADMEEntityConfig((Class<T>) entity.getClass());
         try {
             for (final ADMEFieldConfig fieldConfig : entityConfig.getFieldsConfig()) {
@@ -230,19 +277,26 @@ public class ADME {
                 if (!fieldConfig.isForeign()) {
                     field = fieldConfig.getJavaField();
                     instance = entity;
+                } else if (fieldConfig.isForeignRef()) {
+                    // only the id is read, the foreign entity is loaded on first access
+                    int columnIndex = cursor.getColumnIndex(fieldConfig.getColumnName());
+                    if (columnIndex >= 0) {
+                        fieldConfig.getJavaField().set(entity, cursor.isNull(columnIndex) ? null
+                                : ForeignRef.forId(fieldConfig.getForeignClass(), fieldConfig.getADMESerializer().sqlToJava(cursor, columnIndex, fieldConfig)));
+                    }
+                    continue;
+                } else if (identityMap != null && fieldConfig.getForeignFieldConfig().getADMESerializer().getSQLiteType() == SQLiteType.INTEGER) {
+                    int columnIndex = cursor.getColumnIndex(fieldConfig.getColumnName());
+                    if (columnIndex >= 0) {
+                        fieldConfig.getJavaField().set(entity, cursor.isNull(columnIndex) ? null
+                                : getSharedForeignInstance(cursor, columnIndex, fieldConfig, entityConfig, identityMap));
+                    }
+                    continue;
                 } else {
                     field = fieldConfig.getForeignFieldConfig().getJavaField();
                     instance = fieldConfig.getJavaField().get(entity);
                     if (instance == null) {
-                        try {
-                            instance = fieldConfig.getJavaField().getType().newInstance();
-                        } catch (InstantiationException e) {
-                            throw new RuntimeException(String.format("the instance for class %s of foreign field %s in entity %s cannot be created",
-                                    fieldConfig.getJavaField().getType().getName(), fieldConfig.getJavaField().getName(), entityConfig.getClass().getName()), e);
-                        } catch (IllegalAccessException e) {
-                            throw new RuntimeException(String.format("the default constructor for class %s of foreign field %s in entity %s is not visible",
-                                    fieldConfig.getJavaField().getType().getName(), fieldConfig.getJavaField().getName(), entityConfig.getClass().getName()), e);
-                        }
+                        instance = newForeignInstance(fieldConfig, entityConfig);
                         fieldConfig.getJavaField().setAccessible(true);
                         fieldConfig.getJavaField().set(entity, instance);
                     }
@@ -264,6 +318,34 @@ public class ADME {
         return entity;
     }
 
+    private static Object getSharedForeignInstance(@NonNull Cursor cursor, int columnIndex, @NonNull ADMEFieldConfig fieldConfig,
+                                                   @NonNull ADMEEntityConfig<?> entityConfig, @NonNull ADMEIdentityMap identityMap)
+            throws IllegalAccessException {
+        final Class<?> foreignClass = fieldConfig.getJavaField().getType();
+        final long id = cursor.getLong(columnIndex);
+        Object instance = identityMap.get(foreignClass, id);
+        if (instance == null) {
+            instance = newForeignInstance(fieldConfig, entityConfig);
+            final ADMEFieldConfig foreignFieldConfig = fieldConfig.getForeignFieldConfig();
+            foreignFieldConfig.getJavaField().setAccessible(true);
+            foreignFieldConfig.getJavaField().set(instance, fieldConfig.getADMESerializer().sqlToJava(cursor, columnIndex, fieldConfig));
+            identityMap.put(foreignClass, id, instance);
+        }
+        return instance;
+    }
+
+    private static Object newForeignInstance(@NonNull ADMEFieldConfig fieldConfig, @NonNull ADMEEntityConfig<?> entityConfig) {
+        try {
+            return fieldConfig.getJavaField().getType().newInstance();
+        } catch (InstantiationException e) {
+            throw new RuntimeException(String.format("the instance for class %s of foreign field %s in entity %s cannot be created",
+                    fieldConfig.getJavaField().getType().getName(), fieldConfig.getJavaField().getName(), entityConfig.getClass().getName()), e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(String.format("the default constructor for class %s of foreign field %s in entity %s is not visible",
+                    fieldConfig.getJavaField().getType().getName(), fieldConfig.getJavaField().getName(), entityConfig.getClass().getName()), e);
+        }
+    }
+
     /**
      * Convert a {@link android.database.Cursor} into a list of Entity instance.
      * <p/>
@@ -347,14 +429,195 @@ public class ADME {
     public static
     @NonNull
     <T> List<T> cursorToEntityList(@NonNull Cursor cursor, @NonNull Class<T> clazz, List<T> list, @NonNull Set<String> columns) {
+        return cursorToEntityList(cursor, clazz, list, columns, null);
+    }
+
+    /**
+     * Convert a {@link android.database.Cursor} into a list of Entity instance, the rows referencing
+     * the same foreign entity share a single instance of it.
+     * <p/>
+     * If the class of the entityRow is not annotated with {@link com.danielesegato.adme.annotation.ADMEEntity}
+     * this method will throw a RuntimeException.
+     * <p/>
+     * Any missing column will be ignored.
+     *
+     * @param cursor      The Cursor containing the data, it will not
+     *                    be cleared, it's the caller job to do so if you require it.
+     * @param clazz       The class of the instance to be created, it must have a public empty constructor
+     * @param identityMap the instances of the foreign entities to share, see {@link ADMEIdentityMap}
+     * @param <T>         the type of entity
+     * @return the List of Entity with the data extracted by the cursor
+     */
+    public static
+    @NonNull
+    <T> List<T> cursorToEntityList(@NonNull Cursor cursor, @NonNull Class<T> clazz, @NonNull ADMEIdentityMap identityMap) {
+        return cursorToEntityList(cursor, clazz, new ArrayList<T>(cursor.getCount()), getAllColumnsSet(clazz, true, true), identityMap);
+    }
+
+    /**
+     * Convert a {@link android.database.Cursor} into an Entity instance. Only the given set of columns will be read from the cursor.
+     * <p/>
+     * If the class of the entityRow is not annotated with {@link com.danielesegato.adme.annotation.ADMEEntity}
+     * this method will throw a RuntimeException.
+     * <p/>
+     * Any missing column will be ignored.
+     *
+     * @param cursor      The Cursor containing the data, it will not
+     *                    be cleared, it's the caller job to do so if you require it.
+     * @param clazz       The class of the instance to be created, it must have a public empty constructor
+     * @param list        an instance list for the entities, they will be added to the list
+     * @param columns     The set of columns to extract from the Cursor, any missing column will be ignored.
+     * @param identityMap the instances of the foreign entities to share, see {@link ADMEIdentityMap},
+     *                    or null to create a new instance for every foreign field
+     * @param <T>         the type of entity
+     * @return the Entity with the data extracted by the cursor
+     */
+    public static
+    @NonNull
+    <T> List<T> cursorToEntityList(@NonNull Cursor cursor, @NonNull Class<T> clazz, List<T> list, @NonNull Set<String> columns, @Nullable ADMEIdentityMap identityMap) {
         if (cursor.moveToFirst()) {
             do {
-                list.add(cursorToEntity(cursor, clazz, columns));
+                list.add(cursorToEntity(cursor, newEntityInstance(clazz), columns, identityMap));
             } while (cursor.moveToNext());
         }
         return list;
     }
 
+    /**
+     * Load the foreign entities referenced by a foreign field of a list of entities and set them in
+     * the field, replacing the instances holding only the id, or in the {@link ForeignRef} of the
+     * field if it is a lazy reference. The distinct ids are loaded with a
+     * few <code>IN (...)</code> queries, each under the SQLite limit of variables, instead of a
+     * query per entity. The entities referencing the same foreign entity share its instance.
+     * <p/>
+     * The fields of the entities referencing a row which doesn't exist are left untouched. The
+     * returned foreign entities can be resolved in turn to load the next level:
+     * <pre>
+     * List&lt;Customer&gt; customers = ADME.resolveForeign(db, orders, "customer");
+     * ADME.resolveForeign(db, customers, "address");
+     * </pre>
+     *
+     * @param db        the database
+     * @param entities  the entities, all of the same class
+     * @param fieldName the name of the Java field annotated as {@link com.danielesegato.adme.annotation.ADMEField#foreign()}
+     * @param <T>       the type of entity
+     * @param <F>       the type of the foreign entity
+     * @return the foreign entities loaded, in no particular order
+     * @throws IllegalArgumentException if the entities have no foreign field with the given name
+     */
+    @SuppressWarnings("unchecked")
+    public static
+    @NonNull
+    <T, F> List<F> resolveForeign(@NonNull SQLiteDatabase db, @NonNull List<T> entities, @NonNull String fieldName) {
+        final List<F> resolved = new ArrayList<F>();
+        if (entities.isEmpty()) {
+            return resolved;
+        }
+        final ADMEEntityConfig<T> entityConfig = ADMEConfigUtils.lookupADMEEntityConfig((Class<T>) entities.get(0).getClass());
+        ADMEFieldConfig fieldConfig = null;
+        for (final ADMEFieldConfig candidate : entityConfig.getFieldsConfig()) {
+            if (candidate.getJavaField().getName().equals(fieldName)) {
+                fieldConfig = candidate;
+                break;
+            }
+        }
+        if (fieldConfig == null || !fieldConfig.isForeign()) {
+            throw new IllegalArgumentException(String.format(
+                    "Entity %s has no foreign field %s", entityConfig.getEntityName(), fieldName));
+        }
+        final Field field = fieldConfig.getJavaField();
+        final Class<F> foreignClass = (Class<F>) fieldConfig.getForeignClass();
+        final ADMEFieldConfig foreignIdFieldConfig = fieldConfig.getForeignFieldConfig();
+        final Field foreignIdField = foreignIdFieldConfig.getJavaField();
+        // the entities referencing each foreign id, by id string representation
+        final Map<String, List<T>> referencingEntities = new LinkedHashMap<String, List<T>>();
+        try {
+            for (final T entity : entities) {
+                final Object instance = field.get(entity);
+                final Object id;
+                if (instance == null) {
+                    id = null;
+                } else if (fieldConfig.isForeignRef()) {
+                    id = ((ForeignRef<?>) instance).getId();
+                } else {
+                    id = foreignIdField.get(instance);
+                }
+                if (id == null) {
+                    continue;
+                }
+                final String key = String.valueOf(id);
+                List<T> referencing = referencingEntities.get(key);
+                if (referencing == null) {
+                    referencing = new ArrayList<T>();
+                    referencingEntities.put(key, referencing);
+                }
+                referencing.add(entity);
+            }
+            final ADMEEntityConfig<F> foreignEntityConfig = ADMEConfigUtils.lookupADMEEntityConfig(foreignClass);
+            final Set<String> columns = getAllColumnsSet(foreignClass, true, true);
+            final String[] ids = referencingEntities.keySet().toArray(new String[referencingEntities.size()]);
+            final StringBuilder sb = new StringBuilder();
+            for (int start = 0; start < ids.length; start += SQLITE_MAX_VARIABLE_NUMBER) {
+                final int end = Math.min(start + SQLITE_MAX_VARIABLE_NUMBER, ids.length);
+                sb.setLength(0);
+                sb.append("SELECT * FROM ");
+                SQLStringHelper.appendEscapedEntityOrField(sb, foreignEntityConfig.getEntityName());
+                sb.append(" WHERE ");
+                SQLStringHelper.appendQuotedIdentifier(sb, foreignIdFieldConfig.getColumnName());
+                sb.append(" IN (");
+                for (int i = start; i < end; i++) {
+                    sb.append(i > start ? ", ?" : "?");
+                }
+                sb.append(')');
+                final String[] chunkIds = new String[end - start];
+                System.arraycopy(ids, start, chunkIds, 0, chunkIds.length);
+                final Cursor cursor = db.rawQuery(sb.toString(), chunkIds);
+                try {
+                    while (cursor.moveToNext()) {
+                        final F foreignEntity = cursorToEntity(cursor, foreignClass, columns);
+                        final List<T> referencing = referencingEntities.get(String.valueOf(foreignIdField.get(foreignEntity)));
+                        if (referencing == null) {
+                            continue;
+                        }
+                        for (final T entity : referencing) {
+                            if (fieldConfig.isForeignRef()) {
+                                ((ForeignRef<F>) field.get(entity)).set(foreignEntity);
+                            } else {
+                                field.set(entity, foreignEntity);
+                            }
+                        }
+                        resolved.add(foreignEntity);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        } catch (IllegalAccessException e) {
+            String msg = String.format("Error resolving foreign field %s of entity %s, couldn't access some field", fieldName, entityConfig.getEntityName());
+            Log.e(LOGTAG, msg, e);
+            throw new RuntimeException(msg, e);
+        }
+        return resolved;
+    }
+
+    /**
+     * Convert a list of entities into the {@link ContentProviderOperation}s inserting them, or
+     * updating them if their generated ID is set, ready for a content provider batch. Foreign
+     * entities inserted in the same batch are referenced through back references.
+     * <p/>
+     * Use an {@link ADMEOperationsBuilder} to mix entities of different types in the same batch.
+     *
+     * @param uri      the content Uri of the entities
+     * @param entities the entities to insert or update
+     * @param <T>      the type of entity
+     * @return the operations
+     */
+    public static
+    @NonNull
+    <T> ArrayList<ContentProviderOperation> toOperations(@NonNull Uri uri, @NonNull List<T> entities) {
+        return new ADMEOperationsBuilder().addAll(uri, entities).build();
+    }
+
     /**
      * Create the table for the entity of the entityClass. The entityClass must be annotated with
      * an {@link com.danielesegato.adme.annotation.ADMEEntity} annotation.
@@ -399,6 +662,9 @@ public class ADME {
         appendColumnsDefinitions(sb, dbEntityConfig);
         appendEntityConstraints(sb, dbEntityConfig);
         sb.append(") ");
+        if (dbEntityConfig.isWithoutRowId()) {
+            sb.append("WITHOUT ROWID ");
+        }
         statements.add(sb.toString());
 
         for (final ADMEIndexConstraintConfig indexConstraintConfig : dbEntityConfig.getIndexConstraintConfigList()) {
@@ -406,12 +672,178 @@ public class ADME {
             appendIndexStatement(sb, indexConstraintConfig);
             statements.add(sb.toString());
         }
+        statements.addAll(getCreateFullTextStatements(dbEntityConfig));
+        statements.addAll(ADMEChangeLog.getCreateStatements(dbEntityConfig));
+        return statements;
+    }
+
+    /**
+     * Return the statements to create the full-text search table of an entity and the triggers
+     * keeping it in sync with the entity table. They are already part of
+     * {@link #getCreateTableStatements(com.danielesegato.adme.config.ADMEEntityConfig)}, use this
+     * method to add the full-text search to an existing table in a database upgrade, followed by
+     * {@link #rebuildFullTextIndex(android.database.sqlite.SQLiteDatabase, Class)}.
+     *
+     * @param dbEntityConfig the {@link com.danielesegato.adme.annotation.ADMEEntity} annotated class.
+     * @return the list of SQLite statements, empty if the entity has no
+     * {@link com.danielesegato.adme.annotation.ADMEFullText} fields
+     */
+    public static List<String> getCreateFullTextStatements(@NonNull final ADMEEntityConfig<?> dbEntityConfig) {
+        // http://www.sqlite.org/fts3.html#_external_content_fts4_tables_
+        final List<String> statements = new ArrayList<String>();
+        if (!dbEntityConfig.hasFullText()) {
+            return statements;
+        }
+        final StringBuilder sb = new StringBuilder();
+        sb.append("CREATE VIRTUAL TABLE ");
+        SQLStringHelper.appendEscapedEntityOrField(sb, dbEntityConfig.getFullTextEntityName());
+        sb.append(" USING fts4(content=");
+        SQLStringHelper.appendEscapedEntityOrField(sb, dbEntityConfig.getEntityName());
+        for (final ADMEFieldConfig fieldConfig : dbEntityConfig.getFullTextFieldsConfig()) {
+            sb.append(", ");
+            SQLStringHelper.appendEscapedEntityOrField(sb, fieldConfig.getColumnName());
+        }
+        sb.append(")");
+        statements.add(sb.toString());
+
+        sb.setLength(0);
+        appendFullTextTriggerHead(sb, dbEntityConfig, "bu", "BEFORE UPDATE");
+        appendFullTextDelete(sb, dbEntityConfig);
+        statements.add(sb.append("END").toString());
+        sb.setLength(0);
+        appendFullTextTriggerHead(sb, dbEntityConfig, "bd", "BEFORE DELETE");
+        appendFullTextDelete(sb, dbEntityConfig);
+        statements.add(sb.append("END").toString());
+        sb.setLength(0);
+        appendFullTextTriggerHead(sb, dbEntityConfig, "au", "AFTER UPDATE");
+        appendFullTextInsert(sb, dbEntityConfig);
+        statements.add(sb.append("END").toString());
+        sb.setLength(0);
+        appendFullTextTriggerHead(sb, dbEntityConfig, "ai", "AFTER INSERT");
+        appendFullTextInsert(sb, dbEntityConfig);
+        statements.add(sb.append("END").toString());
         return statements;
     }
 
+    private static void appendFullTextTriggerHead(@NonNull final StringBuilder sb, @NonNull final ADMEEntityConfig<?> dbEntityConfig, @NonNull final String suffix, @NonNull final String event) {
+        // http://www.sqlite.org/lang_createtrigger.html
+        sb.append("CREATE TRIGGER ");
+        SQLStringHelper.appendEscapedEntityOrField(sb, ADMEConfigUtils.FULL_TEXT_TRIGGER_PREFIX + dbEntityConfig.getEntityName() + ADMEConfigUtils.INDEX_SEPARATOR + suffix);
+        sb.append(' ').append(event).append(" ON ");
+        SQLStringHelper.appendEscapedEntityOrField(sb, dbEntityConfig.getEntityName());
+        sb.append(" BEGIN ");
+    }
+
+    private static void appendFullTextDelete(@NonNull final StringBuilder sb, @NonNull final ADMEEntityConfig<?> dbEntityConfig) {
+        sb.append("DELETE FROM ");
+        SQLStringHelper.appendEscapedEntityOrField(sb, dbEntityConfig.getFullTextEntityName());
+        sb.append(" WHERE docid = old.rowid; ");
+    }
+
+    private static void appendFullTextInsert(@NonNull final StringBuilder sb, @NonNull final ADMEEntityConfig<?> dbEntityConfig) {
+        sb.append("INSERT INTO ");
+        SQLStringHelper.appendEscapedEntityOrField(sb, dbEntityConfig.getFullTextEntityName());
+        sb.append(" (docid");
+        for (final ADMEFieldConfig fieldConfig : dbEntityConfig.getFullTextFieldsConfig()) {
+            sb.append(", ");
+            SQLStringHelper.appendEscapedEntityOrField(sb, fieldConfig.getColumnName());
+        }
+        sb.append(") VALUES (new.rowid");
+        for (final ADMEFieldConfig fieldConfig : dbEntityConfig.getFullTextFieldsConfig()) {
+            sb.append(", new.");
+            SQLStringHelper.appendEscapedEntityOrField(sb, fieldConfig.getColumnName());
+        }
+        sb.append("); ");
+    }
+
+    /**
+     * Rebuild the full-text search index of an entity from the content of its table. Only needed
+     * if the full-text table is added to a table already containing rows, the index is kept
+     * up to date by triggers otherwise.
+     *
+     * @param db          the database
+     * @param entityClass the {@link com.danielesegato.adme.annotation.ADMEEntity} annotated class.
+     * @param <T>         the type of the class
+     */
+    public static <T> void rebuildFullTextIndex(@NonNull final SQLiteDatabase db, @NonNull final Class<T> entityClass) {
+        final ADMEEntityConfig<T> entityConfig = lookupFullTextEntityConfig(entityClass);
+        final StringBuilder sb = new StringBuilder();
+        sb.append("INSERT INTO ");
+        SQLStringHelper.appendEscapedEntityOrField(sb, entityConfig.getFullTextEntityName());
+        sb.append(" (");
+        SQLStringHelper.appendEscapedEntityOrField(sb, entityConfig.getFullTextEntityName());
+        sb.append(") VALUES ('rebuild')");
+        db.execSQL(sb.toString());
+    }
+
+    /**
+     * Search the entities matching a full-text query over the fields annotated with
+     * {@link com.danielesegato.adme.annotation.ADMEFullText}.
+     *
+     * @param db          the database
+     * @param entityClass the {@link com.danielesegato.adme.annotation.ADMEEntity} annotated class.
+     * @param match       the full-text query, see http://www.sqlite.org/fts3.html#full_text_index_queries
+     *                    (ex. <code>term*</code> for prefix queries).
+     * @param <T>         the type of the class
+     * @return the list of matching entities
+     */
+    public static
+    @NonNull
+    <T> List<T> fullTextSearch(@NonNull final SQLiteDatabase db, @NonNull final Class<T> entityClass, @NonNull final String match) {
+        final Cursor cursor = fullTextSearchCursor(db, entityClass, match, null);
+        try {
+            return cursorToEntityList(cursor, entityClass);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Same as {@link #fullTextSearch(android.database.sqlite.SQLiteDatabase, Class, String)} but
+     * return the Cursor over the entity table rows.
+     *
+     * @param db          the database
+     * @param entityClass the {@link com.danielesegato.adme.annotation.ADMEEntity} annotated class.
+     * @param match       the full-text query
+     * @param orderBy     the ORDER BY clause, without the ORDER BY keyword, or null
+     * @param <T>         the type of the class
+     * @return the Cursor with all the columns of the matching entities
+     */
+    public static
+    @NonNull
+    <T> Cursor fullTextSearchCursor(@NonNull final SQLiteDatabase db, @NonNull final Class<T> entityClass, @NonNull final String match, @Nullable final String orderBy) {
+        final ADMEEntityConfig<T> entityConfig = lookupFullTextEntityConfig(entityClass);
+        final StringBuilder sb = new StringBuilder();
+        sb.append("SELECT * FROM ");
+        SQLStringHelper.appendEscapedEntityOrField(sb, entityConfig.getEntityName());
+        sb.append(" WHERE rowid IN (SELECT docid FROM ");
+        SQLStringHelper.appendEscapedEntityOrField(sb, entityConfig.getFullTextEntityName());
+        sb.append(" WHERE ");
+        SQLStringHelper.appendQuotedIdentifier(sb, entityConfig.getFullTextEntityName());
+        sb.append(" MATCH ?)");
+        if (orderBy != null) {
+            sb.append(" ORDER BY ").append(orderBy);
+        }
+        return db.rawQuery(sb.toString(), new String[]{match});
+    }
+
+    private static
+    @NonNull
+    <T> ADMEEntityConfig<T> lookupFullTextEntityConfig(@NonNull final Class<T> entityClass) {
+        final ADMEEntityConfig<T> entityConfig = ADMEConfigUtils.lookupADMEEntityConfig(entityClass);
+        if (!entityConfig.hasFullText()) {
+            throw new IllegalArgumentException(String.format("Entity %s has no full-text fields", entityClass.getName()));
+        }
+        return entityConfig;
+    }
+
     public static <T> void dropTable(@NonNull final SQLiteDatabase db, @NonNull final Class<T> entityClass) {
         ADMEEntityConfig<T> entityConfig = ADMEConfigUtils.lookupADMEEntityConfig(entityClass);
         dropTable(db, entityConfig.getEntityName());
+        if (entityConfig.hasFullText()) {
+            // the triggers are dropped together with the entity table
+            dropTable(db, entityConfig.getFullTextEntityName());
+        }
     }
 
     public static void dropTable(@NonNull final SQLiteDatabase db, @NonNull final String tableName) {
@@ -514,7 +946,7 @@ public class ADME {
 
         if (fieldConfig.isId()) {
             sb.append("PRIMARY KEY ");
-            if (fieldConfig.isGeneratedId()) {
+            if (fieldConfig.isGeneratedId() && fieldConfig.getADMEEntityConfig().isAutoIncrement()) {
                 sb.append(" AUTOINCREMENT ");
             }
         } else {
@@ -523,7 +955,8 @@ public class ADME {
             } else {
                 sb.append("NON NULL ");
             }
-            if (fieldConfig.getIndexConstraint() != null && fieldConfig.getIndexConstraint().isUnique()) {
+            if (fieldConfig.getIndexConstraint() != null && fieldConfig.getIndexConstraint().isUnique()
+                    && fieldConfig.getIndexConstraint().isTableConstraintCompatible()) {
                 sb.append("UNIQUE ");
             }
             if (fieldConfig.getDefaultValue() != null) {
@@ -536,8 +969,22 @@ public class ADME {
     private static
     @NonNull
     StringBuilder appendEntityConstraints(@NonNull final StringBuilder sb, @NonNull final ADMEEntityConfig<?> dbEntityConfig) {
+        if (dbEntityConfig.getPrimaryKeyFieldsConfig() != null) {
+            sb.append(", PRIMARY KEY (");
+            boolean first = true;
+            for (ADMEFieldConfig fieldConfig : dbEntityConfig.getPrimaryKeyFieldsConfig()) {
+                if (first) {
+                    first = false;
+                } else {
+                    sb.append(", ");
+                }
+                SQLStringHelper.appendEscapedEntityOrField(sb, fieldConfig.getColumnName());
+            }
+            sb.append(")");
+        }
         for (final ADMEIndexConstraintConfig indexConstraintConfig : dbEntityConfig.getIndexConstraintConfigList()) {
-            if (!indexConstraintConfig.isSingleField() && indexConstraintConfig.isUnique()) {
+            if (!indexConstraintConfig.isSingleField() && indexConstraintConfig.isUnique()
+                    && indexConstraintConfig.isTableConstraintCompatible()) {
                 sb.append(", UNIQUE (");
                 boolean first = true;
                 for (ADMEFieldConfig fieldConfig : indexConstraintConfig.getFields()) {
@@ -583,15 +1030,33 @@ public class ADME {
         SQLStringHelper.appendEscapedEntityOrField(sb, indexConstraintConfig.getADMEEntityConfig().getEntityName());
         sb.append(" (");
         boolean first = true;
-        for (final ADMEFieldConfig fieldConfig : indexConstraintConfig.getFields()) {
+        final ADMEFieldConfig[] fields = indexConstraintConfig.getFields();
+        for (int i = 0; i < fields.length; i++) {
             if (first) {
                 first = false;
             } else {
                 sb.append(", ");
             }
-            SQLStringHelper.appendEscapedEntityOrField(sb, fieldConfig.getColumnName());
+            SQLStringHelper.appendEscapedEntityOrField(sb, fields[i].getColumnName());
+            if (indexConstraintConfig.getCollations()[i] != null) {
+                sb.append(" COLLATE ").append(indexConstraintConfig.getCollations()[i]);
+            }
+            if (indexConstraintConfig.getOrders()[i].sql() != null) {
+                sb.append(' ').append(indexConstraintConfig.getOrders()[i].sql());
+            }
+        }
+        for (final String expression : indexConstraintConfig.getExpressions()) {
+            if (first) {
+                first = false;
+            } else {
+                sb.append(", ");
+            }
+            sb.append(expression);
         }
         sb.append(") ");
+        if (indexConstraintConfig.isPartial()) {
+            sb.append("WHERE ").append(indexConstraintConfig.getWhere()).append(' ');
+        }
         return sb;
     }
 
@@ -29,6 +29,10 @@ import static java.lang.annotation.RetentionPolicy.RUNTIME;
  * <p/>
  * The order in which the columns are created match the order they are defined in code (starting from
  * the first class after {@link java.lang.Object} containing a field and going down to the entity class.
+ * <p/>
+ * By default an {@link com.danielesegato.adme.annotation.ADMEField#generatedId()} column is declared
+ * with <em>AUTOINCREMENT</em>, you can disable it with {@link #autoIncrement()}. Tables with a natural
+ * key can be declared {@link #withoutRowId()}, their key can span multiple columns with {@link #primaryKey()}.
  */
 @Target(TYPE)
 @Retention(RUNTIME)
@@ -51,4 +55,66 @@ public @interface ADMEEntity {
      * constraint you need to define
      */
     ADMEIndexConstraint[] indexConstraints() default {};
+
+    /**
+     * Whether the {@link ADMEField#generatedId()} column should be declared with the SQLite
+     * <em>AUTOINCREMENT</em> keyword. Default is true.
+     * <p/>
+     * <em>AUTOINCREMENT</em> prevent the reuse of ids of deleted rows but it costs an additional
+     * write to the <code>sqlite_sequence</code> table for every insert. When set to false the id
+     * column is a plain <em>INTEGER PRIMARY KEY</em>, an alias of the SQLite rowid: a new row get
+     * an id greater than the largest id in the table at the time of the insert.
+     * <p/>
+     * Ignored if the entity has no generated id.
+     */
+    boolean autoIncrement() default true;
+
+    /**
+     * Create the table as a <em>WITHOUT ROWID</em> table. Default is false.
+     * <p/>
+     * The table rows are stored directly in the primary key index, which saves storage and insert
+     * time on tables with a natural primary key (ex. link tables). The entity must have an
+     * {@link ADMEField#id()} which is not a {@link ADMEField#generatedId()} or declare a
+     * {@link #primaryKey()}.
+     * <p/>
+     * Requires SQLite 3.8.2 or later (Android 5.0).
+     */
+    boolean withoutRowId() default false;
+
+    /**
+     * Define a primary key over multiple columns of this entity. Default is empty, meaning the
+     * primary key is the {@link ADMEField#id()} field.
+     * <p/>
+     * It must have at least two columns and can't be used if a field is marked as
+     * {@link ADMEField#id()}. The column name is used, not the field name, see
+     * {@link ADMEIndexConstraint#columns()}.
+     *
+     * @return an array of column names being part of the primary key
+     */
+    String[] primaryKey() default {};
+
+    /**
+     * Record every change of the table rows in the change log table. Default is false.
+     * <p/>
+     * Triggers append the rowid and the kind of change (insert, update, delete) of every modified
+     * row, with an increasing sequence number, to a log table shared by all the entities: see
+     * {@link com.danielesegato.adme.db.ADMEChangeLog} to read the changes since a sequence number,
+     * ex. to find the rows to upload in a sync, without scanning the whole table.
+     * <p/>
+     * Not supported by {@link #withoutRowId()} tables.
+     */
+    boolean changeLog() default false;
+
+    /**
+     * The column storing the expiry time of the rows, in milliseconds since the epoch. Default is
+     * empty, meaning the rows never expire.
+     * <p/>
+     * The column must be stored as INTEGER (ex. a <code>long</code> or a {@link java.util.Date}
+     * field), rows with a NULL expiry never expire. An index on the column is created
+     * automatically unless the field already declares one. The expired rows are deleted by the
+     * {@link com.danielesegato.adme.db.ADMEExpirySweeper}.
+     *
+     * @return the column name of the expiry field
+     */
+    String expiryColumn() default "";
 }
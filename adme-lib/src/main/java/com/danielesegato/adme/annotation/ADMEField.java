@@ -27,7 +27,8 @@ import static java.lang.annotation.RetentionPolicy.RUNTIME;
  * By default a column is {@link #nullable()} but you can specify otherwise.
  * <p/>
  * Exactly one column/field for every {@link ADMEEntity} should be defined an {@link #id()} or a runtime error will be
- * raised. This field will be used as <em>primary key</em> for the entity. Multiple fields primary key are not supported.
+ * raised. This field will be used as <em>primary key</em> for the entity. Multiple fields primary key can only be declared
+ * on the entity with {@link ADMEEntity#primaryKey()}, such entities have no {@link #id()} field.
  * If the ID is an <em>long</em> or an <em>int</em> and you need to let the ADME auto increment it you just have to set
  * {@link #generatedId()}.
  * <p/>
@@ -96,6 +97,9 @@ public @interface ADMEField {
      * entity {@link #id} field will be used as reference to this column in this entity. If you do not specify a {@link #columnName()}
      * the column name for this field will be the field name with the {@link #FOREIGN_FIELD_SUFFIX} suffix. Default is false.
      * <p/>
+     * Declare the field as a {@link com.danielesegato.adme.db.ForeignRef} of the other entity to load it lazily, on
+     * first access, instead of instantiating it for every mapped row.
+     * <p/>
      * Be sure to enable foreign in the database by adding this to your {@link android.database.sqlite.SQLiteOpenHelper}:
      * <pre>
      * {@literal @}Override
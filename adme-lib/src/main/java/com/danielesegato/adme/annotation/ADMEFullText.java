@@ -0,0 +1,36 @@
+package com.danielesegato.adme.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Mark a field of an {@link ADMEEntity} as searchable with SQLite full-text search. The annotation
+ * is automatically inherited by subclasses and is available at runtime. This annotation will have
+ * no effect if the field has no {@link ADMEField} annotation.
+ * <p/>
+ * When at least one field of an entity is annotated an FTS4 virtual table is created together with
+ * the entity table, named as the entity with the
+ * {@link com.danielesegato.adme.config.ADMEConfigUtils#FULL_TEXT_SUFFIX} suffix. The virtual table
+ * use the entity table as external content, it only stores the full-text index, and it is kept in
+ * sync by triggers on the entity table.
+ * <p/>
+ * Only fields stored as TEXT in the database can be annotated (ex. {@link java.lang.String} or
+ * {@link java.util.Date} with the {@link com.danielesegato.adme.db.serializer.DateAsStringADMESerializer}),
+ * foreign fields can't be annotated and the entity can't be declared {@link ADMEEntity#withoutRowId()}.
+ * <p/>
+ * Use {@link com.danielesegato.adme.ADME#fullTextSearch(android.database.sqlite.SQLiteDatabase, Class, String)}
+ * to query the index instead of <code>LIKE '%term%'</code> queries, which always scan the whole table.
+ * <p/>
+ * External content FTS4 tables require SQLite 3.7.9 or later (Android 4.1).
+ */
+@Target(FIELD)
+@Retention(RUNTIME)
+@Documented()
+@Inherited()
+public @interface ADMEFullText {
+}
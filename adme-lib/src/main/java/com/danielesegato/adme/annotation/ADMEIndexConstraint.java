@@ -1,5 +1,7 @@
 package com.danielesegato.adme.annotation;
 
+import com.danielesegato.adme.config.IndexColumnOrder;
+
 import java.lang.annotation.Documented;
 import java.lang.annotation.Inherited;
 import java.lang.annotation.Retention;
@@ -28,6 +30,21 @@ import static java.lang.annotation.RetentionPolicy.RUNTIME;
  * parsing the entity configuration.
  * <p/>
  * You can specify the {@link #indexName()} manually or let the system generate one for you.
+ * <p/>
+ * Indexes can be further customized:
+ * <ul>
+ * <li>{@link #where()} makes the index partial, only rows matching the condition are indexed</li>
+ * <li>{@link #orders()} and {@link #collations()} define the sort order and collation of each column</li>
+ * <li>{@link #expressions()} add indexed expressions after the columns (entity level only)</li>
+ * </ul>
+ * A covering index is just a multiple column index that include, after the columns used for the
+ * lookup, the columns read by the query: SQLite will answer the query from the index without
+ * looking up the table rows.
+ * <p/>
+ * Unique constraints using {@link #where()}, {@link #expressions()} or {@link #collations()} can't
+ * be expressed as table constraints, they are enforced by the unique index only.
+ * <p/>
+ * Partial and expression indexes require SQLite 3.8.0 or later (Android 5.0).
  */
 @Target(FIELD)
 @Retention(RUNTIME)
@@ -67,4 +84,47 @@ public @interface ADMEIndexConstraint {
      * @return an array of strings with the columns indexName being part of this index
      */
     String[] columns() default {};
+
+    /**
+     * The WHERE clause of a partial index, without the WHERE keyword, ex. <code>deleted = 0</code>.
+     * Only the rows matching the condition will be part of the index. The condition is placed as is
+     * in the CREATE INDEX statement. Default is empty, meaning the index is not partial.
+     * <p/>
+     * If you declare multiple partial indexes on the same columns specify an {@link #indexName()}
+     * for each one of them or the auto-generated names will collide.
+     *
+     * @return the partial index condition
+     */
+    String where() default "";
+
+    /**
+     * Sort order of each column of the index. Default is empty, meaning every column use the
+     * default order. If specified it must have the same length of {@link #columns()} or a single
+     * element when the annotation is applied on a field.
+     *
+     * @return an array with the sort order of each column
+     */
+    IndexColumnOrder[] orders() default {};
+
+    /**
+     * Collation of each column of the index, ex. <code>NOCASE</code>. Default is empty, meaning every
+     * column use the default collation. An empty string leave the collation of that column
+     * unspecified. If specified it must have the same length of {@link #columns()} or a single
+     * element when the annotation is applied on a field.
+     *
+     * @return an array with the collation name of each column
+     */
+    String[] collations() default {};
+
+    /**
+     * Expressions to index after the {@link #columns()}, ex. <code>lower(name)</code>. They are
+     * placed as is in the CREATE INDEX statement. Default is empty.
+     * <p/>
+     * Expressions can only be specified on an index defined in {@link ADMEEntity#indexConstraints()},
+     * where they can be used alone or together with the columns, an exception will be raised if
+     * you define them directly on a field.
+     *
+     * @return an array of SQL expressions being part of this index
+     */
+    String[] expressions() default {};
 }
@@ -6,11 +6,15 @@ import com.danielesegato.adme.ADME;
 import com.danielesegato.adme.InternalADMEConsts;
 import com.danielesegato.adme.annotation.ADMEEntity;
 import com.danielesegato.adme.annotation.ADMEField;
+import com.danielesegato.adme.annotation.ADMEFullText;
 import com.danielesegato.adme.annotation.ADMEIndexConstraint;
 import com.danielesegato.adme.db.ADMESerializer;
 import com.danielesegato.adme.db.ADMESerializerMapping;
+import com.danielesegato.adme.db.ForeignRef;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -29,6 +33,10 @@ public class ADMEConfigUtils {
     public static final String INDEX_PREFIX = "__idx_";
     public static final String INDEX_PREFIX_UNIQUE = "__uidx_";
     public static final String INDEX_SEPARATOR = "_";
+    public static final String INDEX_EXPRESSION_PART = "expr";
+    public static final String FULL_TEXT_SUFFIX = "_fts";
+    public static final String FULL_TEXT_TRIGGER_PREFIX = "__fts_";
+    public static final String CHANGE_LOG_TRIGGER_PREFIX = "__cdc_";
     private static final Map<Class<?>, ADMEEntityConfig<?>> entityConfigCacheMap = new HashMap<Class<?>, ADMEEntityConfig<?>>();
 
     /**
@@ -74,17 +82,121 @@ public class ADMEConfigUtils {
             buildMultipleIndexConstraintConfig(indexConstraintEntity, entityClass, entityConfig, fieldNameConfigMap, entityIndexConstraintList);
         }
         entityConfig.setIndexConstraintConfigList(entityIndexConstraintList);
+        buildTableOptions(entity, entityClass, entityConfig, fieldNameConfigMap);
+        buildExpiryConfiguration(entity, entityClass, entityConfig, fieldNameConfigMap);
+        buildFullTextConfiguration(entityClass, entityConfig);
         return entityConfig;
     }
 
-    private static <T> void buildFieldsConfiguration(Class<T> entityClass, ADMEEntityConfig<T> entityConfig, Map<String, ADMEFieldConfig> fieldNameConfigMap, List<ADMEFieldConfig> fieldConfigList, List<ADMEIndexConstraintConfig> entityIndexConstraintList) {
-        buildFieldsConfigurationRecursive(entityClass, entityClass, entityConfig, fieldNameConfigMap, fieldConfigList, entityIndexConstraintList);
-        if (entityConfig.getIdFieldConfig() == null) {
+    private static <T> void buildFullTextConfiguration(Class<T> entityClass, ADMEEntityConfig<T> entityConfig) {
+        final List<ADMEFieldConfig> fullTextFieldsConfig = new ArrayList<ADMEFieldConfig>();
+        for (ADMEFieldConfig fieldConfig : entityConfig.getFieldsConfig()) {
+            if (fieldConfig.isFullText()) {
+                fullTextFieldsConfig.add(fieldConfig);
+            }
+        }
+        if (!fullTextFieldsConfig.isEmpty() && entityConfig.isWithoutRowId()) {
+            throw new IllegalArgumentException(String.format(
+                    "Entity class %s declare %s fields but it is declared without rowid, this is not supported",
+                    entityClass.getName(), ADMEFullText.class.getSimpleName()
+            ));
+        }
+        entityConfig.setFullTextFieldsConfig(fullTextFieldsConfig);
+    }
+
+    private static <T> void buildExpiryConfiguration(ADMEEntity entity, Class<T> entityClass, ADMEEntityConfig<T> entityConfig, Map<String, ADMEFieldConfig> fieldNameConfigMap) {
+        if (entity.expiryColumn().length() == 0) {
+            return;
+        }
+        final ADMEFieldConfig fieldConfig = fieldNameConfigMap.get(entity.expiryColumn());
+        if (fieldConfig == null) {
+            throw new IllegalArgumentException(String.format(
+                    "Column '%s' not found in entity class %s for its expiry column, check a field with that column name is available",
+                    entity.expiryColumn(), entityClass.getName()
+            ));
+        }
+        if (fieldConfig.isForeign() || fieldConfig.getADMESerializer().getSQLiteType() != SQLiteType.INTEGER) {
+            throw new IllegalArgumentException(String.format(
+                    "Entity class %s declare field %s as expiry column but it is not stored as INTEGER",
+                    entityClass.getName(), fieldConfig.getJavaField().getName()
+            ));
+        }
+        entityConfig.setExpiryFieldConfig(fieldConfig);
+        if (fieldConfig.getIndexConstraint() == null) {
+            // the sweeper looks up the expired rows by expiry time
+            final ADMEIndexConstraintConfig indexConstraintConfig = new ADMEIndexConstraintConfig();
+            indexConstraintConfig.setADMEEntityConfig(entityConfig);
+            indexConstraintConfig.setFields(new ADMEFieldConfig[]{fieldConfig});
+            indexConstraintConfig.setOrders(new IndexColumnOrder[]{IndexColumnOrder.DEFAULT});
+            indexConstraintConfig.setCollations(new String[1]);
+            indexConstraintConfig.setExpressions(new String[0]);
+            indexConstraintConfig.setIndex(true);
+            indexConstraintConfig.setIndexName(INDEX_PREFIX + entityConfig.getEntityName() + INDEX_SEPARATOR + fieldConfig.getColumnName());
+            indexConstraintConfig.setSingleField(true);
+            fieldConfig.setIndexConstraint(indexConstraintConfig);
+            entityConfig.getIndexConstraintConfigList().add(indexConstraintConfig);
+        }
+    }
+
+    private static <T> void buildTableOptions(ADMEEntity entity, Class<T> entityClass, ADMEEntityConfig<T> entityConfig, Map<String, ADMEFieldConfig> fieldNameConfigMap) {
+        entityConfig.setAutoIncrement(entity.autoIncrement());
+        entityConfig.setWithoutRowId(entity.withoutRowId());
+        entityConfig.setChangeLog(entity.changeLog());
+        if (entity.changeLog() && entity.withoutRowId()) {
+            throw new IllegalArgumentException(String.format(
+                    "Entity class %s is declared without rowid and with a change log, this is not supported",
+                    entityClass.getName()
+            ));
+        }
+        if (entity.primaryKey().length > 0) {
+            if (entity.primaryKey().length < 2) {
+                throw new IllegalArgumentException(String.format(
+                        "Entity class %s declare a primary key with a single column, mark the field as id instead",
+                        entityClass.getName()
+                ));
+            }
+            if (entityConfig.getIdFieldConfig() != null) {
+                throw new IllegalArgumentException(String.format(
+                        "Entity class %s declare both a primary key and the ID field %s, only one of them is supported",
+                        entityClass.getName(), entityConfig.getIdFieldConfig().getJavaField().getName()
+                ));
+            }
+            ADMEFieldConfig[] primaryKeyFieldsConfig = new ADMEFieldConfig[entity.primaryKey().length];
+            for (int i = 0; i < entity.primaryKey().length; i++) {
+                ADMEFieldConfig fieldConfig = fieldNameConfigMap.get(entity.primaryKey()[i]);
+                if (fieldConfig == null) {
+                    throw new IllegalArgumentException(String.format(
+                            "Column '%s' not found in entity class %s for its primary key, check a field with that column name is available",
+                            entity.primaryKey()[i], entityClass.getName()
+                    ));
+                }
+                primaryKeyFieldsConfig[i] = fieldConfig;
+            }
+            entityConfig.setPrimaryKeyFieldsConfig(primaryKeyFieldsConfig);
+        } else if (entityConfig.getIdFieldConfig() == null) {
             Log.w(InternalADMEConsts.LOGTAG, String.format(
                     "Entity %s of class %s has no field marked as ID",
                     entityConfig.getEntityName(), entityClass.getName()
             ));
         }
+        if (entity.withoutRowId()) {
+            if (entityConfig.getIdFieldConfig() == null && entityConfig.getPrimaryKeyFieldsConfig() == null) {
+                throw new IllegalArgumentException(String.format(
+                        "Entity class %s is declared without rowid but it has no ID field nor primary key",
+                        entityClass.getName()
+                ));
+            }
+            if (entityConfig.getIdFieldConfig() != null && entityConfig.getIdFieldConfig().isGeneratedId()) {
+                throw new IllegalArgumentException(String.format(
+                        "Entity class %s is declared without rowid but its ID field %s is auto-generated, this is not supported",
+                        entityClass.getName(), entityConfig.getIdFieldConfig().getJavaField().getName()
+                ));
+            }
+        }
+    }
+
+    private static <T> void buildFieldsConfiguration(Class<T> entityClass, ADMEEntityConfig<T> entityConfig, Map<String, ADMEFieldConfig> fieldNameConfigMap, List<ADMEFieldConfig> fieldConfigList, List<ADMEIndexConstraintConfig> entityIndexConstraintList) {
+        buildFieldsConfigurationRecursive(entityClass, entityClass, entityConfig, fieldNameConfigMap, fieldConfigList, entityIndexConstraintList);
     }
 
     private static <T> void buildFieldsConfigurationRecursive(Class<T> entityClass, Class<?> currentClass, ADMEEntityConfig<T> entityConfig, Map<String, ADMEFieldConfig> fieldNameConfigMap, List<ADMEFieldConfig> fieldConfigList, List<ADMEIndexConstraintConfig> entityIndexConstraintList) {
@@ -151,10 +263,15 @@ public class ADMEConfigUtils {
             fieldConfig.setForeignOnDelete(entityField.foreignOnDelete());
             fieldConfig.setForeignOnUpdate(entityField.foreignOnUpdate());
             // check foreign
-            if (entityField.foreign() && field.getType().getAnnotation(ADMEEntity.class) == null) {
-                throw new IllegalArgumentException(String.format(
-                        "Entity class %s declare field %s as foreign but it's type class %s is not annotated with %s ",
-                        entityClass.getName(), field.getName(), field.getType().getName(), ADMEEntity.class.getSimpleName()));
+            if (entityField.foreign()) {
+                final Class<?> foreignClass = findForeignClass(field, entityClass);
+                if (foreignClass.getAnnotation(ADMEEntity.class) == null) {
+                    throw new IllegalArgumentException(String.format(
+                            "Entity class %s declare field %s as foreign but it's type class %s is not annotated with %s ",
+                            entityClass.getName(), field.getName(), foreignClass.getName(), ADMEEntity.class.getSimpleName()));
+                }
+                fieldConfig.setForeignClass(foreignClass);
+                fieldConfig.setForeignRef(field.getType() == ForeignRef.class);
             }
 
             // discover this field type and assign a serializer
@@ -162,6 +279,17 @@ public class ADMEConfigUtils {
                 fieldConfig.setADMESerializer(findADMESerializerForField(field, false));
             }
 
+            // Full-text handling
+            if (field.getAnnotation(ADMEFullText.class) != null) {
+                if (entityField.foreign() || fieldConfig.getADMESerializer().getSQLiteType() != SQLiteType.TEXT) {
+                    throw new IllegalArgumentException(String.format(
+                            "Entity class %s declare field %s as %s but it is not stored as TEXT",
+                            entityClass.getName(), field.getName(), ADMEFullText.class.getSimpleName()
+                    ));
+                }
+                fieldConfig.setFullText(true);
+            }
+
             // Unique / Index handling
             final ADMEIndexConstraint indexConstraintField = field.getAnnotation(ADMEIndexConstraint.class);
             if (indexConstraintField != null) {
@@ -183,6 +311,22 @@ public class ADMEConfigUtils {
         }
     }
 
+    private static <T> Class<?> findForeignClass(Field field, Class<T> entityClass) {
+        if (field.getType() != ForeignRef.class) {
+            return field.getType();
+        }
+        final Type genericType = field.getGenericType();
+        if (genericType instanceof ParameterizedType) {
+            final Type typeArgument = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+            if (typeArgument instanceof Class) {
+                return (Class<?>) typeArgument;
+            }
+        }
+        throw new IllegalArgumentException(String.format(
+                "Entity class %s declare field %s as %s without the class of the foreign entity as type argument",
+                entityClass.getName(), field.getName(), ForeignRef.class.getSimpleName()));
+    }
+
     private static <T> void buildSingleIndexConstraintConfig(ADMEIndexConstraint indexConstraintField, Field field, Class<T> entityClass, ADMEEntityConfig<T> entityConfig, List<ADMEIndexConstraintConfig> entityIndexConstraintList, ADMEFieldConfig fieldConfig) {
         if (indexConstraintField.columns().length > 0) {
             throw new IllegalArgumentException(String.format(
@@ -196,9 +340,16 @@ public class ADMEConfigUtils {
                     entityClass.getName(), field.getName(), ADMEIndexConstraint.class.getSimpleName()
             ));
         }
+        if (indexConstraintField.expressions().length > 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Entity class %s declare field %s with invalid %s annotation: expressions array can't be specified on a field, specify it on the entity class",
+                    entityClass.getName(), field.getName(), ADMEIndexConstraint.class.getSimpleName()
+            ));
+        }
         ADMEIndexConstraintConfig indexConstraintConfig = new ADMEIndexConstraintConfig();
         indexConstraintConfig.setADMEEntityConfig(entityConfig);
         indexConstraintConfig.setFields(new ADMEFieldConfig[]{fieldConfig});
+        buildIndexColumnsOptions(indexConstraintField, entityClass, indexConstraintConfig);
         indexConstraintConfig.setIndex(indexConstraintField.index());
         if (indexConstraintField.indexName().length() > 0) {
             indexConstraintConfig.setIndexName(indexConstraintField.indexName());
@@ -217,7 +368,7 @@ public class ADMEConfigUtils {
     }
 
     private static <T> void buildMultipleIndexConstraintConfig(ADMEIndexConstraint indexConstraintEntity, Class<T> entityClass, ADMEEntityConfig<T> entityConfig, Map<String, ADMEFieldConfig> fieldNameConfigMap, List<ADMEIndexConstraintConfig> entityIndexConstraintList) {
-        if (indexConstraintEntity.columns().length < 2) {
+        if (indexConstraintEntity.columns().length < 2 && indexConstraintEntity.expressions().length == 0) {
             throw new IllegalArgumentException(String.format(
                     "Entity class %s declare an %s annotation with no columns or a single column, this is invalid on an entity, declare it on the field itself",
                     entityClass.getName(), ADMEIndexConstraint.class.getSimpleName()
@@ -237,6 +388,7 @@ public class ADMEConfigUtils {
             fieldConfigArray[i] = fieldConfig;
         }
         indexConstraintConfig.setFields(fieldConfigArray);
+        buildIndexColumnsOptions(indexConstraintEntity, entityClass, indexConstraintConfig);
         indexConstraintConfig.setIndex(indexConstraintEntity.index());
         if (indexConstraintEntity.indexName().length() > 0) {
             indexConstraintConfig.setIndexName(indexConstraintEntity.indexName());
@@ -248,9 +400,52 @@ public class ADMEConfigUtils {
                 sb.append(INDEX_SEPARATOR);
                 sb.append(fieldConfig.getColumnName());
             }
+            for (int i = 0; i < indexConstraintConfig.getExpressions().length; i++) {
+                sb.append(INDEX_SEPARATOR);
+                sb.append(INDEX_EXPRESSION_PART);
+                sb.append(i);
+            }
             indexConstraintConfig.setIndexName(sb.toString());
         }
         indexConstraintConfig.setUnique(indexConstraintEntity.unique());
         entityIndexConstraintList.add(indexConstraintConfig);
     }
+
+    private static <T> void buildIndexColumnsOptions(ADMEIndexConstraint indexConstraint, Class<T> entityClass, ADMEIndexConstraintConfig indexConstraintConfig) {
+        final int fieldsCount = indexConstraintConfig.getFields().length;
+        if (indexConstraint.orders().length > 0 && indexConstraint.orders().length != fieldsCount) {
+            throw new IllegalArgumentException(String.format(
+                    "Entity class %s declare an %s annotation with %d orders for %d columns, they must match",
+                    entityClass.getName(), ADMEIndexConstraint.class.getSimpleName(), indexConstraint.orders().length, fieldsCount
+            ));
+        }
+        if (indexConstraint.collations().length > 0 && indexConstraint.collations().length != fieldsCount) {
+            throw new IllegalArgumentException(String.format(
+                    "Entity class %s declare an %s annotation with %d collations for %d columns, they must match",
+                    entityClass.getName(), ADMEIndexConstraint.class.getSimpleName(), indexConstraint.collations().length, fieldsCount
+            ));
+        }
+        final IndexColumnOrder[] orders = new IndexColumnOrder[fieldsCount];
+        final String[] collations = new String[fieldsCount];
+        for (int i = 0; i < fieldsCount; i++) {
+            orders[i] = indexConstraint.orders().length > 0 ? indexConstraint.orders()[i] : IndexColumnOrder.DEFAULT;
+            if (indexConstraint.collations().length > 0 && indexConstraint.collations()[i].length() > 0) {
+                collations[i] = indexConstraint.collations()[i];
+            }
+        }
+        indexConstraintConfig.setOrders(orders);
+        indexConstraintConfig.setCollations(collations);
+        for (String expression : indexConstraint.expressions()) {
+            if (expression.trim().length() == 0) {
+                throw new IllegalArgumentException(String.format(
+                        "Entity class %s declare an %s annotation with an empty expression",
+                        entityClass.getName(), ADMEIndexConstraint.class.getSimpleName()
+                ));
+            }
+        }
+        indexConstraintConfig.setExpressions(indexConstraint.expressions());
+        if (indexConstraint.where().trim().length() > 0) {
+            indexConstraintConfig.setWhere(indexConstraint.where().trim());
+        }
+    }
 }
@@ -11,6 +11,12 @@ public class ADMEEntityConfig<T> {
     private Class<T> javaClass;
     private ADMEFieldConfig idFieldConfig;
     private List<ADMEIndexConstraintConfig> indexConstraintConfigList;
+    private boolean autoIncrement;
+    private boolean withoutRowId;
+    private boolean changeLog;
+    private ADMEFieldConfig expiryFieldConfig;
+    private ADMEFieldConfig[] primaryKeyFieldsConfig;
+    private List<ADMEFieldConfig> fullTextFieldsConfig;
 
     /**
      * @return the entity name on the database.
@@ -66,4 +72,94 @@ public class ADMEEntityConfig<T> {
     public void setIndexConstraintConfigList(List<ADMEIndexConstraintConfig> indexConstraintConfigList) {
         this.indexConstraintConfigList = indexConstraintConfigList;
     }
+
+    /**
+     * @return <em>true</em> if the generated id of this entity is declared as AUTOINCREMENT.
+     */
+    public boolean isAutoIncrement() {
+        return autoIncrement;
+    }
+
+    public void setAutoIncrement(boolean autoIncrement) {
+        this.autoIncrement = autoIncrement;
+    }
+
+    /**
+     * @return <em>true</em> if this entity table is a WITHOUT ROWID table.
+     */
+    public boolean isWithoutRowId() {
+        return withoutRowId;
+    }
+
+    public void setWithoutRowId(boolean withoutRowId) {
+        this.withoutRowId = withoutRowId;
+    }
+
+    /**
+     * @return <em>true</em> if the changes of this entity table are recorded in the change log.
+     */
+    public boolean isChangeLog() {
+        return changeLog;
+    }
+
+    public void setChangeLog(boolean changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    /**
+     * @return the configuration of the field storing the expiry time of the rows or null if the
+     * rows of this entity never expire.
+     */
+    public ADMEFieldConfig getExpiryFieldConfig() {
+        return expiryFieldConfig;
+    }
+
+    public void setExpiryFieldConfig(ADMEFieldConfig expiryFieldConfig) {
+        this.expiryFieldConfig = expiryFieldConfig;
+    }
+
+    /**
+     * @return <em>true</em> if the rows of this entity have an expiry time.
+     */
+    public boolean hasExpiry() {
+        return expiryFieldConfig != null;
+    }
+
+    /**
+     * @return the configuration of the fields of a multiple columns primary key or null if the
+     * primary key is the id field.
+     */
+    public ADMEFieldConfig[] getPrimaryKeyFieldsConfig() {
+        return primaryKeyFieldsConfig;
+    }
+
+    public void setPrimaryKeyFieldsConfig(ADMEFieldConfig[] primaryKeyFieldsConfig) {
+        this.primaryKeyFieldsConfig = primaryKeyFieldsConfig;
+    }
+
+    /**
+     * @return the list of fields indexed in the full-text search table, empty if the entity has no
+     * full-text search table.
+     */
+    public List<ADMEFieldConfig> getFullTextFieldsConfig() {
+        return fullTextFieldsConfig;
+    }
+
+    public void setFullTextFieldsConfig(List<ADMEFieldConfig> fullTextFieldsConfig) {
+        this.fullTextFieldsConfig = fullTextFieldsConfig;
+    }
+
+    /**
+     * @return <em>true</em> if this entity has a full-text search table.
+     */
+    public boolean hasFullText() {
+        return fullTextFieldsConfig != null && !fullTextFieldsConfig.isEmpty();
+    }
+
+    /**
+     * @return the name of the full-text search table of this entity on the database.
+     */
+    public String getFullTextEntityName() {
+        return entityName + ADMEConfigUtils.FULL_TEXT_SUFFIX;
+    }
 }
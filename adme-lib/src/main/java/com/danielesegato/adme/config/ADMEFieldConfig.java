@@ -20,11 +20,14 @@ public class ADMEFieldConfig {
     private OnForeignUpdateDelete foreignOnDelete;
     private OnForeignUpdateDelete foreignOnUpdate;
     private ADMEFieldConfig foreignFieldConfig;
+    private Class<?> foreignClass;
+    private boolean foreignRef;
     private Field javaField;
     private ADMEEntityConfig<?> ADMEEntityConfig;
     private ADMEIndexConstraintConfig indexConstraint;
     private ADMESerializer admeSerializer;
     private String fallbackEnumName;
+    private boolean fullText;
 
     public boolean isId() {
         return id;
@@ -90,10 +93,33 @@ public class ADMEFieldConfig {
         this.foreignOnUpdate = foreignOnUpdate;
     }
 
+    /**
+     * @return the entity class referenced by this foreign field, the type argument of the field
+     * if it is a {@link com.danielesegato.adme.db.ForeignRef}
+     */
+    public Class<?> getForeignClass() {
+        return foreignClass;
+    }
+
+    public void setForeignClass(Class<?> foreignClass) {
+        this.foreignClass = foreignClass;
+    }
+
+    /**
+     * @return <em>true</em> if this foreign field is a lazy {@link com.danielesegato.adme.db.ForeignRef}
+     */
+    public boolean isForeignRef() {
+        return foreignRef;
+    }
+
+    public void setForeignRef(boolean foreignRef) {
+        this.foreignRef = foreignRef;
+    }
+
     public ADMEFieldConfig getForeignFieldConfig() {
         // lazy initialize to avoid recursions
         if (foreign && foreignFieldConfig == null) {
-            Class<?> foreignFieldType = getJavaField().getType();
+            Class<?> foreignFieldType = getForeignClass();
             final ADMEEntityConfig<?> entityConfig;
             try {
                 entityConfig = ADMEConfigUtils.lookupADMEEntityConfig(foreignFieldType);
@@ -177,4 +203,15 @@ public class ADMEFieldConfig {
     public void setFallbackEnumName(String fallbackEnumName) {
         this.fallbackEnumName = fallbackEnumName;
     }
+
+    /**
+     * @return <em>true</em> if this field is indexed in the full-text search table of the entity
+     */
+    public boolean isFullText() {
+        return fullText;
+    }
+
+    public void setFullText(boolean fullText) {
+        this.fullText = fullText;
+    }
 }
@@ -10,6 +10,10 @@ public class ADMEIndexConstraintConfig {
     private String indexName;
     private boolean unique;
     private boolean singleField;
+    private IndexColumnOrder[] orders;
+    private String[] collations;
+    private String[] expressions;
+    private String where;
 
     /**
      * @return the ADME Entity to which this index / constraint is applied
@@ -77,4 +81,73 @@ public class ADMEIndexConstraintConfig {
     public void setSingleField(boolean singleField) {
         this.singleField = singleField;
     }
+
+    /**
+     * @return the sort order of each field from {@link #getFields()}, never null
+     */
+    public IndexColumnOrder[] getOrders() {
+        return orders;
+    }
+
+    public void setOrders(IndexColumnOrder[] orders) {
+        this.orders = orders;
+    }
+
+    /**
+     * @return the collation of each field from {@link #getFields()}, never null, a null element
+     * means the default collation is used for that field
+     */
+    public String[] getCollations() {
+        return collations;
+    }
+
+    public void setCollations(String[] collations) {
+        this.collations = collations;
+    }
+
+    /**
+     * @return the array of SQL expressions indexed after the fields from {@link #getFields()}, never null
+     */
+    public String[] getExpressions() {
+        return expressions;
+    }
+
+    public void setExpressions(String[] expressions) {
+        this.expressions = expressions;
+    }
+
+    /**
+     * @return the condition of the partial index or null if this is not a partial index
+     */
+    public String getWhere() {
+        return where;
+    }
+
+    public void setWhere(String where) {
+        this.where = where;
+    }
+
+    /**
+     * @return <em>true</em> if this is a partial index, <em>false</em> otherwise
+     */
+    public boolean isPartial() {
+        return where != null;
+    }
+
+    /**
+     * @return <em>true</em> if the unique constraint of this configuration can be declared in the
+     * CREATE TABLE statement, <em>false</em> if it can only be enforced by the unique index because
+     * it is partial, it index expressions or it uses custom collations
+     */
+    public boolean isTableConstraintCompatible() {
+        if (where != null || expressions.length > 0) {
+            return false;
+        }
+        for (String collation : collations) {
+            if (collation != null) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,36 @@
+package com.danielesegato.adme.config;
+
+/**
+ * Enumeration of the sort order of a column inside an index.
+ * <p/>
+ * See http://www.sqlite.org/lang_createindex.html
+ */
+public enum IndexColumnOrder {
+    /**
+     * this is the default, no sort order is specified and SQLite will use ascending order
+     */
+    DEFAULT(null),
+    /**
+     * ascending order
+     */
+    ASC("ASC"),
+    /**
+     * descending order, useful when the index is meant to serve an ORDER BY ... DESC
+     */
+    DESC("DESC"),
+    // end
+    ;
+
+    private final String sql;
+
+    private IndexColumnOrder(final String sql) {
+        this.sql = sql;
+    }
+
+    /**
+     * @return the SQL keyword for this order or null for {@link #DEFAULT}
+     */
+    public String sql() {
+        return sql;
+    }
+}
@@ -4,6 +4,8 @@ import android.annotation.TargetApi;
 import android.content.AsyncTaskLoader;
 import android.content.Context;
 import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
@@ -15,6 +17,8 @@ import com.danielesegato.adme.InternalADMEConsts;
  * It cache the value returned by {@link #loadContentInBackground()} and automatically refresh reload
  * in background when the data behind the ContentWrapper changes.
  * <p/>
+ * On Android 4.1+ the load can be canceled, see {@link #loadContentInBackground(CancellationSignal)}.
+ * <p/>
  * It automatically handle the wrapper close method and observer registering.
  */
 @TargetApi(Build.VERSION_CODES.HONEYCOMB)
@@ -23,6 +27,7 @@ public abstract class ADMEContentLoader<D> extends AsyncTaskLoader<ContentWrappe
     private final ForceLoadContentObserver observer;
     protected ContentWrapper<D> mContent;
     private ContentWrapper<D> mContentObserved;
+    private CancellationSignal mCancellationSignal;
 
     public ADMEContentLoader(Context context) {
         super(context);
@@ -78,15 +83,66 @@ public abstract class ADMEContentLoader<D> extends AsyncTaskLoader<ContentWrappe
 
     @Override
     public final ContentWrapper<D> loadInBackground() {
-        ContentWrapper<D> content = loadContentInBackground();
+        ContentWrapper<D> content;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            content = loadContentInBackground();
+        } else {
+            content = loadContentInBackgroundCancellable();
+        }
         content.registerContentObserver(observer);
         return content;
     }
 
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private ContentWrapper<D> loadContentInBackgroundCancellable() {
+        final CancellationSignal cancellationSignal;
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            cancellationSignal = new CancellationSignal();
+            mCancellationSignal = cancellationSignal;
+        }
+        try {
+            return loadContentInBackground(cancellationSignal);
+        } finally {
+            synchronized (this) {
+                mCancellationSignal = null;
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+        synchronized (this) {
+            if (mCancellationSignal != null) {
+                mCancellationSignal.cancel();
+            }
+        }
+    }
+
     public abstract
     @NonNull
     ContentWrapper<D> loadContentInBackground();
 
+    /**
+     * Load the content, the cancellation signal is canceled when the loader is abandoned, pass it
+     * to the {@link android.content.ContentResolver} query so that the query is interrupted.
+     * Optional hook, by default it calls {@link #loadContentInBackground()}. Only invoked on
+     * Android 4.1+, {@link #loadContentInBackground()} is used before.
+     *
+     * @param cancellationSignal the signal to cancel the load
+     * @return the content
+     * @throws OperationCanceledException if the load has been canceled
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @NonNull
+    public ContentWrapper<D> loadContentInBackground(@NonNull CancellationSignal cancellationSignal) {
+        return loadContentInBackground();
+    }
+
     @Override
     public void onCanceled(ContentWrapper<D> data) {
         if (data != null) {
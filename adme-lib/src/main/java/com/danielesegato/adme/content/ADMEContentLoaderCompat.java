@@ -1,6 +1,10 @@
 package com.danielesegato.adme.content;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.support.annotation.NonNull;
 import android.support.v4.content.AsyncTaskLoader;
 import android.util.Log;
@@ -13,6 +17,8 @@ import com.danielesegato.adme.InternalADMEConsts;
  * It cache the value returned by {@link #loadContentInBackground()} and automatically refresh reload
  * in background when the data behind the ContentWrapper changes.
  * <p/>
+ * On Android 4.1+ the load can be canceled, see {@link #loadContentInBackground(CancellationSignal)}.
+ * <p/>
  * It automatically handle the wrapper close method and observer registering.
  */
 public abstract class ADMEContentLoaderCompat<D> extends AsyncTaskLoader<ContentWrapper<D>> {
@@ -20,6 +26,7 @@ public abstract class ADMEContentLoaderCompat<D> extends AsyncTaskLoader<Content
     private final ForceLoadContentObserver observer;
     protected ContentWrapper<D> mContent;
     private ContentWrapper<D> mContentObserved;
+    private CancellationSignal mCancellationSignal;
 
     public ADMEContentLoaderCompat(Context context) {
         super(context);
@@ -74,13 +81,71 @@ public abstract class ADMEContentLoaderCompat<D> extends AsyncTaskLoader<Content
 
     @Override
     public final ContentWrapper<D> loadInBackground() {
-        return loadContentInBackground();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return loadContentInBackground();
+        }
+        return loadContentInBackgroundCancellable();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private ContentWrapper<D> loadContentInBackgroundCancellable() {
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        synchronized (this) {
+            mCancellationSignal = cancellationSignal;
+        }
+        try {
+            return loadContentInBackground(cancellationSignal);
+        } catch (OperationCanceledException e) {
+            // the support loader doesn't know the framework exception, a canceled load delivers null
+            if (cancellationSignal.isCanceled()) {
+                return null;
+            }
+            throw e;
+        } finally {
+            synchronized (this) {
+                mCancellationSignal = null;
+            }
+        }
+    }
+
+    @Override
+    public boolean cancelLoad() {
+        // the support AsyncTaskLoader has no cancelLoadInBackground(), cancel the signal of the
+        // running load here
+        final boolean canceled = super.cancelLoad();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            cancelSignal();
+        }
+        return canceled;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private synchronized void cancelSignal() {
+        if (mCancellationSignal != null) {
+            mCancellationSignal.cancel();
+        }
     }
 
     public abstract
     @NonNull
     ContentWrapper<D> loadContentInBackground();
 
+    /**
+     * Load the content, the cancellation signal is canceled by {@link #cancelLoad()}, pass it
+     * to the {@link android.content.ContentResolver} query so that the query is interrupted.
+     * Optional hook, by default it calls {@link #loadContentInBackground()}. Only invoked on
+     * Android 4.1+, {@link #loadContentInBackground()} is used before.
+     *
+     * @param cancellationSignal the signal to cancel the load
+     * @return the content
+     * @throws OperationCanceledException if the load has been canceled
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @NonNull
+    public ContentWrapper<D> loadContentInBackground(@NonNull CancellationSignal cancellationSignal) {
+        return loadContentInBackground();
+    }
+
     @Override
     public void onCanceled(ContentWrapper<D> data) {
         if (data != null) {
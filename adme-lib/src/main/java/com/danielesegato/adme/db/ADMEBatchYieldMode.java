@@ -0,0 +1,73 @@
+package com.danielesegato.adme.db;
+
+import android.content.ContentProviderOperation;
+import android.net.Uri;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * How a content provider batch (<code>applyBatch()</code>) yields its transaction to other threads.
+ * <p/>
+ * Used by {@link SQLiteContentProvider} and {@link com.danielesegato.adme.provider.ADMEContentProvider},
+ * the mode is chosen by their <code>getBatchYieldMode()</code> method. By default it is
+ * {@link #STRICT} unless the caller asks for another mode with the {@link #QUERY_PARAMETER} query
+ * parameter in the Uri of the first operation of the batch, ex:
+ * <pre>
+ * Uri uri = MyComponent.CONTENT_URI.buildUpon()
+ *         .appendQueryParameter(ADMEBatchYieldMode.QUERY_PARAMETER, ADMEBatchYieldMode.AUTO.name())
+ *         .build();
+ * </pre>
+ */
+public enum ADMEBatchYieldMode {
+    /**
+     * The transaction is yielded only at the operations with
+     * {@link ContentProviderOperation#isYieldAllowed()}, the batch fails if too many operations run
+     * without a yield point. This is the behavior of the Android content providers.
+     */
+    STRICT,
+    /**
+     * The transaction is yielded at the operations with {@link ContentProviderOperation#isYieldAllowed()}
+     * and also automatically when too many operations, or operations for too long, run without a
+     * yield point. The batch is not atomic: if an operation fails the operations before the last
+     * yield point are already committed.
+     */
+    AUTO,
+    /**
+     * The transaction is never yielded, whatever the number of operations, the batch is atomic.
+     * Other writers are blocked until the whole batch is applied.
+     */
+    ATOMIC;
+
+    /**
+     * Name of the Uri query parameter selecting the yield mode of a batch, the value is the name
+     * of the mode (case insensitive).
+     */
+    public static final String QUERY_PARAMETER = "batchYieldMode";
+
+    /**
+     * Read the yield mode requested by the caller with the {@link #QUERY_PARAMETER} of the first
+     * operation Uri.
+     *
+     * @param operations  the operations of the batch
+     * @param defaultMode the mode to return if the caller didn't request one
+     * @return the requested yield mode or defaultMode
+     * @throws IllegalArgumentException if the requested mode is unknown
+     */
+    public static ADMEBatchYieldMode fromOperations(List<ContentProviderOperation> operations, ADMEBatchYieldMode defaultMode) {
+        if (operations.isEmpty()) {
+            return defaultMode;
+        }
+        final Uri uri = operations.get(0).getUri();
+        final String mode = uri != null ? uri.getQueryParameter(QUERY_PARAMETER) : null;
+        if (mode == null) {
+            return defaultMode;
+        }
+        try {
+            return valueOf(mode.toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format(
+                    "Unknown batch yield mode %s in %s", mode, uri), e);
+        }
+    }
+}
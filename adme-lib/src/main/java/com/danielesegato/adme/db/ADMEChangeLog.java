@@ -0,0 +1,283 @@
+package com.danielesegato.adme.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+
+import com.danielesegato.adme.config.ADMEConfigUtils;
+import com.danielesegato.adme.config.ADMEEntityConfig;
+import com.danielesegato.adme.provider.ADMEOperation;
+import com.danielesegato.adme.utils.SQLStringHelper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read the change log of the entities declared with
+ * {@link com.danielesegato.adme.annotation.ADMEEntity#changeLog()}.
+ * <p/>
+ * Every insert, update and delete of a row of those entities is appended to the {@link #TABLE}
+ * table, by triggers, with an increasing sequence number. A sync can then find the modified rows
+ * with {@link #getChangedRows(SQLiteDatabase, long, long)} and, once they are uploaded,
+ * {@link #purge(SQLiteDatabase, long)} the log:
+ * <pre>
+ * long lastSequence = ADMEChangeLog.getLastSequence(db);
+ * for (ADMEChangeLog.Change change : ADMEChangeLog.getChangedRows(db, 0, lastSequence)) {
+ *     // upload change.getTable() row change.getRowId()
+ * }
+ * ADMEChangeLog.purge(db, lastSequence);
+ * </pre>
+ * The changes made by a sync adapter downloading the remote content should not be uploaded back:
+ * the {@link com.danielesegato.adme.provider.EntityContentProviderComponent} discards the changes
+ * of the writes on Uris with the {@link #CALLER_IS_SYNC_ADAPTER} query parameter set to true.
+ */
+public class ADMEChangeLog {
+    /**
+     * Name of the change log table.
+     */
+    public static final String TABLE = "__adme_changelog";
+    /**
+     * Name of the Uri query parameter telling the content provider that the write comes from the
+     * sync adapter, its changes are not logged and not notified to the network.
+     */
+    public static final String CALLER_IS_SYNC_ADAPTER = "caller_is_syncadapter";
+
+    private static final String COLUMN_SEQUENCE = "seq";
+    private static final String COLUMN_TABLE = "table_name";
+    private static final String COLUMN_ROW_ID = "row_id";
+    private static final String COLUMN_OPERATION = "op";
+    private static final int OPERATION_INSERT = 1;
+    private static final int OPERATION_UPDATE = 2;
+    private static final int OPERATION_DELETE = 3;
+
+    /**
+     * A change of a row.
+     */
+    public static final class Change {
+        private final long sequence;
+        private final String table;
+        private final long rowId;
+        private final ADMEOperation operation;
+
+        Change(long sequence, String table, long rowId, ADMEOperation operation) {
+            this.sequence = sequence;
+            this.table = table;
+            this.rowId = rowId;
+            this.operation = operation;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public long getRowId() {
+            return rowId;
+        }
+
+        public ADMEOperation getOperation() {
+            return operation;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d %s %s %d", sequence, operation, table, rowId);
+        }
+    }
+
+    /**
+     * Return the statements to create the change log table, if it doesn't exist, and the triggers
+     * recording the changes of the entity. They are already part of
+     * {@link com.danielesegato.adme.ADME#getCreateTableStatements(ADMEEntityConfig)}, use this
+     * method to start logging the changes of an existing table in a database upgrade.
+     *
+     * @param dbEntityConfig the {@link com.danielesegato.adme.annotation.ADMEEntity} config
+     * @return the list of SQLite statements, empty if the entity has no change log
+     */
+    public static List<String> getCreateStatements(@NonNull final ADMEEntityConfig<?> dbEntityConfig) {
+        final List<String> statements = new ArrayList<String>();
+        if (!dbEntityConfig.isChangeLog()) {
+            return statements;
+        }
+        final StringBuilder sb = new StringBuilder();
+        sb.append("CREATE TABLE IF NOT EXISTS ");
+        SQLStringHelper.appendEscapedEntityOrField(sb, TABLE);
+        sb.append(" (").append(COLUMN_SEQUENCE).append(" INTEGER PRIMARY KEY AUTOINCREMENT, ")
+                .append(COLUMN_TABLE).append(" TEXT NOT NULL, ")
+                .append(COLUMN_ROW_ID).append(" INTEGER NOT NULL, ")
+                .append(COLUMN_OPERATION).append(" INTEGER NOT NULL)");
+        statements.add(sb.toString());
+
+        sb.setLength(0);
+        appendTriggerHead(sb, dbEntityConfig, "ai", "AFTER INSERT");
+        appendLogInsert(sb, dbEntityConfig, "new", OPERATION_INSERT, null);
+        statements.add(sb.append("END").toString());
+        sb.setLength(0);
+        appendTriggerHead(sb, dbEntityConfig, "au", "AFTER UPDATE");
+        // a change of the rowid is logged as the delete of the old row
+        appendLogInsert(sb, dbEntityConfig, "old", OPERATION_DELETE, "old.rowid <> new.rowid");
+        appendLogInsert(sb, dbEntityConfig, "new", OPERATION_UPDATE, null);
+        statements.add(sb.append("END").toString());
+        sb.setLength(0);
+        appendTriggerHead(sb, dbEntityConfig, "ad", "AFTER DELETE");
+        appendLogInsert(sb, dbEntityConfig, "old", OPERATION_DELETE, null);
+        statements.add(sb.append("END").toString());
+        return statements;
+    }
+
+    private static void appendTriggerHead(StringBuilder sb, ADMEEntityConfig<?> dbEntityConfig, String suffix, String event) {
+        sb.append("CREATE TRIGGER ");
+        SQLStringHelper.appendEscapedEntityOrField(sb, ADMEConfigUtils.CHANGE_LOG_TRIGGER_PREFIX + dbEntityConfig.getEntityName() + ADMEConfigUtils.INDEX_SEPARATOR + suffix);
+        sb.append(' ').append(event).append(" ON ");
+        SQLStringHelper.appendEscapedEntityOrField(sb, dbEntityConfig.getEntityName());
+        sb.append(" BEGIN ");
+    }
+
+    private static void appendLogInsert(StringBuilder sb, ADMEEntityConfig<?> dbEntityConfig, String row, int operation, String where) {
+        sb.append("INSERT INTO ");
+        SQLStringHelper.appendEscapedEntityOrField(sb, TABLE);
+        sb.append(" (").append(COLUMN_TABLE).append(", ").append(COLUMN_ROW_ID).append(", ").append(COLUMN_OPERATION).append(") SELECT ");
+        // the table name is a string literal here
+        SQLStringHelper.appendEscapedEntityOrField(sb, dbEntityConfig.getEntityName());
+        sb.append(", ").append(row).append(".rowid, ").append(operation);
+        if (where != null) {
+            sb.append(" WHERE ").append(where);
+        }
+        sb.append("; ");
+    }
+
+    /**
+     * @param db the database
+     * @return the sequence number of the last logged change, 0 if nothing has ever been logged
+     */
+    public static long getLastSequence(@NonNull final SQLiteDatabase db) {
+        final Cursor cursor = db.rawQuery("SELECT seq FROM sqlite_sequence WHERE name = ?", new String[]{TABLE});
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0L;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return every change logged after a sequence number, in order.
+     *
+     * @param db       the database
+     * @param sequence the sequence number of the last change already processed, 0 for all the changes
+     * @param limit    the maximum number of changes to return
+     * @return the changes
+     */
+    public static List<Change> getChangesSince(@NonNull final SQLiteDatabase db, final long sequence, final int limit) {
+        return getChanges(db, sequence, Long.MAX_VALUE, limit);
+    }
+
+    private static List<Change> getChanges(SQLiteDatabase db, long fromSequence, long toSequence, int limit) {
+        final List<Change> changes = new ArrayList<Change>();
+        final StringBuilder sb = new StringBuilder();
+        sb.append("SELECT ").append(COLUMN_SEQUENCE).append(", ").append(COLUMN_TABLE).append(", ")
+                .append(COLUMN_ROW_ID).append(", ").append(COLUMN_OPERATION).append(" FROM ");
+        SQLStringHelper.appendEscapedEntityOrField(sb, TABLE);
+        sb.append(" WHERE ").append(COLUMN_SEQUENCE).append(" > ? AND ").append(COLUMN_SEQUENCE)
+                .append(" <= ? ORDER BY ").append(COLUMN_SEQUENCE).append(" LIMIT ").append(limit);
+        final Cursor cursor = db.rawQuery(sb.toString(), new String[]{String.valueOf(fromSequence), String.valueOf(toSequence)});
+        try {
+            while (cursor.moveToNext()) {
+                changes.add(new Change(cursor.getLong(0), cursor.getString(1), cursor.getLong(2), toOperation(cursor.getInt(3))));
+            }
+        } finally {
+            cursor.close();
+        }
+        return changes;
+    }
+
+    /**
+     * Return the rows changed in a range of sequence numbers, one change per row, ordered by the
+     * sequence number of their last change. The changes of a row are merged: an insert followed by
+     * updates is an insert, an insert followed by a delete is dropped, a delete followed by an
+     * insert is an update.
+     *
+     * @param db           the database
+     * @param fromSequence the sequence number of the last change already processed, 0 for all the changes
+     * @param toSequence   the sequence number of the last change to process, usually the
+     *                     {@link #getLastSequence(SQLiteDatabase)} read before, to
+     *                     {@link #purge(SQLiteDatabase, long)} the log up to it once processed
+     * @return the changed rows, the sequence number of every change is the one of the last change
+     * of the row
+     */
+    public static List<Change> getChangedRows(@NonNull final SQLiteDatabase db, final long fromSequence, final long toSequence) {
+        final Map<String, Change> rows = new LinkedHashMap<String, Change>();
+        for (Change change : getChanges(db, fromSequence, toSequence, Integer.MAX_VALUE)) {
+            final String key = change.getTable() + '\u0000' + change.getRowId();
+            final Change previous = rows.remove(key);
+            final ADMEOperation operation = mergeOperations(previous != null ? previous.getOperation() : null, change.getOperation());
+            if (operation != null) {
+                rows.put(key, new Change(change.getSequence(), change.getTable(), change.getRowId(), operation));
+            }
+        }
+        return new ArrayList<Change>(rows.values());
+    }
+
+    private static ADMEOperation mergeOperations(ADMEOperation previous, ADMEOperation next) {
+        if (previous == null) {
+            return next;
+        }
+        switch (previous) {
+            case INSERT:
+                return next == ADMEOperation.DELETE ? null : ADMEOperation.INSERT;
+            case DELETE:
+                return next == ADMEOperation.DELETE ? ADMEOperation.DELETE : ADMEOperation.UPDATE;
+            default:
+                return next == ADMEOperation.INSERT ? ADMEOperation.UPDATE : next;
+        }
+    }
+
+    /**
+     * Delete the changes logged up to a sequence number included, ex. once they have been synced.
+     *
+     * @param db       the database
+     * @param sequence the sequence number of the last change to delete
+     * @return the number of deleted changes
+     */
+    public static int purge(@NonNull final SQLiteDatabase db, final long sequence) {
+        return db.delete(TABLE, COLUMN_SEQUENCE + " <= ?", new String[]{String.valueOf(sequence)});
+    }
+
+    /**
+     * Delete the changes logged after a sequence number, ex. the ones of a write which should not
+     * be synced. Must be called in the same transaction of the write.
+     *
+     * @param db       the database
+     * @param sequence the {@link #getLastSequence(SQLiteDatabase)} before the write
+     * @return the number of deleted changes
+     */
+    public static int discardChangesAfter(@NonNull final SQLiteDatabase db, final long sequence) {
+        return db.delete(TABLE, COLUMN_SEQUENCE + " > ?", new String[]{String.valueOf(sequence)});
+    }
+
+    /**
+     * @param uri the Uri of a write
+     * @return true if the Uri has the {@link #CALLER_IS_SYNC_ADAPTER} query parameter set to true
+     */
+    public static boolean isCallerSyncAdapter(@NonNull final Uri uri) {
+        return Boolean.parseBoolean(uri.getQueryParameter(CALLER_IS_SYNC_ADAPTER));
+    }
+
+    private static ADMEOperation toOperation(int operation) {
+        switch (operation) {
+            case OPERATION_INSERT:
+                return ADMEOperation.INSERT;
+            case OPERATION_UPDATE:
+                return ADMEOperation.UPDATE;
+            case OPERATION_DELETE:
+                return ADMEOperation.DELETE;
+            default:
+                throw new IllegalArgumentException(String.format("Unknown change log operation %d", operation));
+        }
+    }
+}
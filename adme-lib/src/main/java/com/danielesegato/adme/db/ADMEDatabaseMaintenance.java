@@ -0,0 +1,293 @@
+package com.danielesegato.adme.db;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.danielesegato.adme.InternalADMEConsts;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Periodic maintenance of a database: give the free pages back to the file system and refresh
+ * the statistics of the query planner.
+ * <p/>
+ * After heavy churn (ex. a cache table emptied and refilled) a database file keeps its free pages:
+ * it stays inflated and the live pages get spread across the file. With
+ * <code>auto_vacuum=INCREMENTAL</code> (see {@link ADMEDatabaseTuning#setAutoVacuum(ADMEDatabaseTuning.AutoVacuum)})
+ * {@link #run(SQLiteDatabase)} releases the free pages once they exceed a ratio of the file,
+ * a few pages per statement so that other writers are never blocked for long. It also runs
+ * <code>PRAGMA optimize</code> (<code>ANALYZE</code> before Android 8.0) at most once per interval.
+ * <p/>
+ * Run it while the app is idle, ex. from a job requiring the device to be idle:
+ * <pre>
+ * ADMEDatabaseMaintenance maintenance = new ADMEDatabaseMaintenance();
+ * ...
+ * maintenance.run(db);
+ * </pre>
+ * The {@link com.danielesegato.adme.provider.ADMEContentProvider} runs it on all its databases, see
+ * {@link com.danielesegato.adme.provider.ADMEContentProvider#runDatabaseMaintenance()}.
+ * <p/>
+ * This class is thread safe, keep a single instance: it remembers when each database has been
+ * optimized for the lifetime of the process.
+ */
+public class ADMEDatabaseMaintenance {
+    private static final String LOGTAG = InternalADMEConsts.LOGTAG;
+    /**
+     * Android 8.0, the first shipping SQLite 3.18 with <code>PRAGMA optimize</code>.
+     */
+    private static final int SDK_PRAGMA_OPTIMIZE = 26;
+    /**
+     * Name of the {@link android.content.ContentResolver#call(android.net.Uri, String, String, android.os.Bundle)}
+     * method asking an {@link com.danielesegato.adme.provider.ADMEContentProvider} to run the
+     * maintenance of its databases. Only this app and the callers holding the write permission of the provider
+     * are allowed, see {@link com.danielesegato.adme.provider.ADMEContentProvider#isCallAllowed(String)}.
+     */
+    public static final String CALL_METHOD = "adme_maintenance";
+    /**
+     * Name of the int extra of the call result holding the number of pages released.
+     */
+    public static final String EXTRA_PAGES = "pages";
+    /**
+     * Default ratio of free pages over the pages of the file triggering the incremental vacuum.
+     */
+    public static final float DEFAULT_FREELIST_RATIO_THRESHOLD = 0.1f;
+    /**
+     * Default number of pages released by a single statement.
+     */
+    public static final int DEFAULT_VACUUM_STEP_PAGES = 64;
+    /**
+     * Default maximum number of pages released by a single run.
+     */
+    public static final int DEFAULT_MAX_VACUUM_PAGES = 4096;
+    /**
+     * Default minimum interval between two optimizations of the same database.
+     */
+    public static final long DEFAULT_OPTIMIZE_INTERVAL_MILLIS = 24L * 60L * 60L * 1000L;
+
+    private volatile float freelistRatioThreshold = DEFAULT_FREELIST_RATIO_THRESHOLD;
+    private volatile int vacuumStepPages = DEFAULT_VACUUM_STEP_PAGES;
+    private volatile int maxVacuumPages = DEFAULT_MAX_VACUUM_PAGES;
+    private volatile long optimizeIntervalMillis = DEFAULT_OPTIMIZE_INTERVAL_MILLIS;
+    // by database path
+    private final Map<String, Long> lastOptimizeTimes = new HashMap<String, Long>();
+
+    /**
+     * @param db the database
+     * @return the auto vacuum mode of the database
+     */
+    public static ADMEDatabaseTuning.AutoVacuum getAutoVacuum(@NonNull SQLiteDatabase db) {
+        final int autoVacuum = (int) DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null);
+        return ADMEDatabaseTuning.AutoVacuum.values()[autoVacuum];
+    }
+
+    /**
+     * @param db the database
+     * @return the number of free pages over the number of pages of the database file
+     */
+    public static float getFreelistRatio(@NonNull SQLiteDatabase db) {
+        final long pageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        if (pageCount == 0) {
+            return 0f;
+        }
+        return (float) DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null) / pageCount;
+    }
+
+    /**
+     * Switch an existing database to <code>auto_vacuum=INCREMENTAL</code>. It rewrites the whole
+     * file with a VACUUM, which can't run inside a transaction: not from
+     * {@link android.database.sqlite.SQLiteOpenHelper#onUpgrade(SQLiteDatabase, int, int)}, call it
+     * once the database is open, ex. from an idle maintenance job.
+     *
+     * @param db the database
+     * @return true if the database has been rewritten, false if it already was in incremental mode
+     * @throws IllegalStateException if called inside a transaction
+     */
+    public static boolean enableIncrementalVacuum(@NonNull SQLiteDatabase db) {
+        checkNotInTransaction(db);
+        if (getAutoVacuum(db) == ADMEDatabaseTuning.AutoVacuum.INCREMENTAL) {
+            return false;
+        }
+        ADMEDatabaseTuning.executePragma(db, "PRAGMA auto_vacuum = " + ADMEDatabaseTuning.AutoVacuum.INCREMENTAL.name());
+        db.execSQL("VACUUM");
+        return true;
+    }
+
+    private static void checkNotInTransaction(SQLiteDatabase db) {
+        if (db.inTransaction()) {
+            throw new IllegalStateException(String.format(
+                    "Database %s maintenance can't run inside a transaction", db.getPath()));
+        }
+    }
+
+    /**
+     * Release up to the given number of free pages with a single statement, only effective if the
+     * database has <code>auto_vacuum=INCREMENTAL</code>.
+     *
+     * @param db    the database
+     * @param pages the maximum number of pages to release
+     */
+    public static void incrementalVacuum(@NonNull SQLiteDatabase db, int pages) {
+        // every step of the pragma releases a page, the cursor must be read to the end
+        final Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + pages + ")", null);
+        try {
+            while (cursor.moveToNext()) {
+                // nothing to read
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Refresh the statistics used by the query planner to choose the indexes: runs
+     * <code>PRAGMA optimize</code> on Android 8.0+, which only analyzes the tables which need it,
+     * a full <code>ANALYZE</code> before.
+     *
+     * @param db the database
+     */
+    public static void optimize(@NonNull SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= SDK_PRAGMA_OPTIMIZE) {
+            ADMEDatabaseTuning.executePragma(db, "PRAGMA optimize");
+        } else {
+            db.execSQL("ANALYZE");
+        }
+    }
+
+    /**
+     * Run the maintenance of a database: release its free pages if they exceed
+     * {@link #getFreelistRatioThreshold()}, then optimize it if it hasn't been optimized in the last
+     * {@link #getOptimizeIntervalMillis()}. Must not be called inside a transaction.
+     *
+     * @param db the database
+     * @return the number of pages released
+     * @throws IllegalStateException if called inside a transaction
+     */
+    public int run(@NonNull SQLiteDatabase db) {
+        checkNotInTransaction(db);
+        final int releasedPages = vacuumIfNeeded(db);
+        optimizeIfNeeded(db);
+        return releasedPages;
+    }
+
+    /**
+     * Release the free pages of the database, {@link #getVacuumStepPages()} pages per statement and
+     * at most {@link #getMaxVacuumPages()}, if they exceed {@link #getFreelistRatioThreshold()}.
+     *
+     * @param db the database
+     * @return the number of pages released
+     */
+    public int vacuumIfNeeded(@NonNull SQLiteDatabase db) {
+        if (getAutoVacuum(db) != ADMEDatabaseTuning.AutoVacuum.INCREMENTAL) {
+            return 0;
+        }
+        final float freelistRatio = getFreelistRatio(db);
+        if (freelistRatio < freelistRatioThreshold) {
+            return 0;
+        }
+        final long initialFreePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        long freePages = initialFreePages;
+        final int maxVacuumPages = this.maxVacuumPages;
+        final int vacuumStepPages = this.vacuumStepPages;
+        while (freePages > 0 && initialFreePages - freePages < maxVacuumPages) {
+            // every statement is a transaction on its own, other writers can run in between
+            incrementalVacuum(db, (int) Math.min(vacuumStepPages, maxVacuumPages - (initialFreePages - freePages)));
+            final long remainingFreePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+            if (remainingFreePages >= freePages) {
+                break;
+            }
+            freePages = remainingFreePages;
+        }
+        final int releasedPages = (int) (initialFreePages - freePages);
+        Log.d(LOGTAG, String.format("Database %s vacuumed: %d free pages of %.1f%% released",
+                db.getPath(), releasedPages, freelistRatio * 100f));
+        return releasedPages;
+    }
+
+    /**
+     * Optimize the database unless it has been optimized by this instance in the last
+     * {@link #getOptimizeIntervalMillis()}.
+     *
+     * @param db the database
+     * @return true if the database has been optimized
+     */
+    public boolean optimizeIfNeeded(@NonNull SQLiteDatabase db) {
+        final long now = System.currentTimeMillis();
+        synchronized (lastOptimizeTimes) {
+            final Long lastOptimizeTime = lastOptimizeTimes.get(db.getPath());
+            if (lastOptimizeTime != null && now - lastOptimizeTime < optimizeIntervalMillis) {
+                return false;
+            }
+            lastOptimizeTimes.put(db.getPath(), now);
+        }
+        optimize(db);
+        Log.d(LOGTAG, String.format("Database %s optimized", db.getPath()));
+        return true;
+    }
+
+    public float getFreelistRatioThreshold() {
+        return freelistRatioThreshold;
+    }
+
+    /**
+     * @param freelistRatioThreshold the ratio of free pages over the pages of the file, between 0
+     *                               and 1, above which the free pages are released
+     */
+    public void setFreelistRatioThreshold(float freelistRatioThreshold) {
+        if (freelistRatioThreshold < 0f || freelistRatioThreshold > 1f) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid freelist ratio threshold %f, it must be between 0 and 1", freelistRatioThreshold));
+        }
+        this.freelistRatioThreshold = freelistRatioThreshold;
+    }
+
+    public int getVacuumStepPages() {
+        return vacuumStepPages;
+    }
+
+    /**
+     * @param vacuumStepPages the number of pages released by a single statement
+     */
+    public void setVacuumStepPages(int vacuumStepPages) {
+        if (vacuumStepPages <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid vacuum step pages %d, it must be positive", vacuumStepPages));
+        }
+        this.vacuumStepPages = vacuumStepPages;
+    }
+
+    public int getMaxVacuumPages() {
+        return maxVacuumPages;
+    }
+
+    /**
+     * @param maxVacuumPages the maximum number of pages released by a single run
+     */
+    public void setMaxVacuumPages(int maxVacuumPages) {
+        if (maxVacuumPages <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid max vacuum pages %d, it must be positive", maxVacuumPages));
+        }
+        this.maxVacuumPages = maxVacuumPages;
+    }
+
+    public long getOptimizeIntervalMillis() {
+        return optimizeIntervalMillis;
+    }
+
+    /**
+     * @param optimizeIntervalMillis the minimum interval between two optimizations of the same
+     *                               database, 0 to optimize at every run
+     */
+    public void setOptimizeIntervalMillis(long optimizeIntervalMillis) {
+        if (optimizeIntervalMillis < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid optimize interval %d ms, it can't be negative", optimizeIntervalMillis));
+        }
+        this.optimizeIntervalMillis = optimizeIntervalMillis;
+    }
+}
@@ -0,0 +1,317 @@
+package com.danielesegato.adme.db;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.danielesegato.adme.InternalADMEConsts;
+
+import java.util.Locale;
+
+/**
+ * Connection tuning profile, a set of SQLite PRAGMAs applied when the database is opened.
+ * <p/>
+ * Every setting left to null keeps the SQLite / Android default. Start from one of the presets
+ * ({@link #writeHeavy()}, {@link #readHeavy()}) or from an empty instance and customize it with the
+ * setters.
+ * <p/>
+ * The {@link com.danielesegato.adme.provider.ADMEContentProvider} and {@link SQLiteContentProvider}
+ * apply the tuning returned by their <code>getDatabaseTuning()</code> method the first time they
+ * use the database. Settings which must be applied before the database is created (ex.
+ * {@link #setPageSize(Integer)}, {@link #setAutoVacuum(AutoVacuum)}) only take effect if you also call {@link #apply(SQLiteDatabase)}
+ * from {@link android.database.sqlite.SQLiteOpenHelper#onConfigure(SQLiteDatabase)}:
+ * <pre>
+ * {@literal @}Override
+ * public void onConfigure(SQLiteDatabase db) {
+ *    super.onConfigure(db);
+ *    ADMEDatabaseTuning.writeHeavy().apply(db);
+ * }
+ * </pre>
+ * The cache, mmap and temp store settings are per connection: when write ahead logging is enabled
+ * Android 4.1+ uses a pool of connections and only the primary one is tuned.
+ * <p/>
+ * See http://www.sqlite.org/pragma.html
+ */
+public class ADMEDatabaseTuning {
+    private static final String LOGTAG = InternalADMEConsts.LOGTAG;
+
+    /**
+     * The journal_mode PRAGMA values.
+     */
+    public enum JournalMode {
+        DELETE, TRUNCATE, PERSIST, MEMORY, WAL, OFF
+    }
+
+    /**
+     * The synchronous PRAGMA values.
+     */
+    public enum Synchronous {
+        /**
+         * no fsync, a power loss can corrupt the database
+         */
+        OFF,
+        /**
+         * fsync at critical moments only, with WAL it is safe from corruption but a power loss can
+         * roll back the last transactions
+         */
+        NORMAL,
+        /**
+         * fsync at every commit, the SQLite default
+         */
+        FULL
+    }
+
+    /**
+     * The temp_store PRAGMA values.
+     */
+    public enum TempStore {
+        DEFAULT, FILE, MEMORY
+    }
+
+    /**
+     * The auto_vacuum PRAGMA values.
+     */
+    public enum AutoVacuum {
+        /**
+         * the free pages stay in the file until a VACUUM, the SQLite default
+         */
+        NONE,
+        /**
+         * the free pages are removed from the file at every commit
+         */
+        FULL,
+        /**
+         * the free pages are removed from the file on request, see {@link ADMEDatabaseMaintenance}
+         */
+        INCREMENTAL
+    }
+
+    private JournalMode journalMode;
+    private Synchronous synchronous;
+    private Integer pageSize;
+    private AutoVacuum autoVacuum;
+    private Integer cacheSize;
+    private Long mmapSize;
+    private TempStore tempStore;
+    private Boolean foreignKeys;
+
+    /**
+     * Preset for databases receiving many writes (ex. sync): write ahead logging with the
+     * synchronous level NORMAL, so commits don't wait for an fsync, a 8MB cache, temporary
+     * tables in memory and incremental auto vacuum.
+     *
+     * @return a new tuning profile
+     */
+    public static ADMEDatabaseTuning writeHeavy() {
+        final ADMEDatabaseTuning tuning = new ADMEDatabaseTuning();
+        tuning.setJournalMode(JournalMode.WAL);
+        tuning.setSynchronous(Synchronous.NORMAL);
+        tuning.setCacheSize(-8 * 1024);
+        tuning.setTempStore(TempStore.MEMORY);
+        tuning.setForeignKeys(true);
+        tuning.setAutoVacuum(AutoVacuum.INCREMENTAL);
+        return tuning;
+    }
+
+    /**
+     * Preset for databases mostly read: write ahead logging so readers don't wait for writers,
+     * a 16MB cache, a 64MB memory mapped I/O window and temporary tables (sorting) in memory.
+     *
+     * @return a new tuning profile
+     */
+    public static ADMEDatabaseTuning readHeavy() {
+        final ADMEDatabaseTuning tuning = new ADMEDatabaseTuning();
+        tuning.setJournalMode(JournalMode.WAL);
+        tuning.setSynchronous(Synchronous.NORMAL);
+        tuning.setCacheSize(-16 * 1024);
+        tuning.setMmapSize(64L * 1024L * 1024L);
+        tuning.setTempStore(TempStore.MEMORY);
+        tuning.setForeignKeys(true);
+        return tuning;
+    }
+
+    /**
+     * Apply this tuning profile to the database. It must not be called inside a transaction.
+     *
+     * @param db the database
+     */
+    public void apply(@NonNull final SQLiteDatabase db) {
+        if (pageSize != null) {
+            // only effective before the database is created or on VACUUM
+            executePragma(db, "PRAGMA page_size = " + pageSize);
+        }
+        if (autoVacuum != null) {
+            // only effective before the database is created or on VACUUM
+            executePragma(db, "PRAGMA auto_vacuum = " + autoVacuum.name());
+        }
+        if (journalMode != null) {
+            applyJournalMode(db);
+        }
+        if (synchronous != null) {
+            executePragma(db, "PRAGMA synchronous = " + synchronous.name());
+        }
+        if (cacheSize != null) {
+            executePragma(db, "PRAGMA cache_size = " + cacheSize);
+        }
+        if (mmapSize != null) {
+            // ignored by SQLite before 3.7.17 (Android 5.0)
+            executePragma(db, "PRAGMA mmap_size = " + mmapSize);
+        }
+        if (tempStore != null) {
+            executePragma(db, "PRAGMA temp_store = " + tempStore.name());
+        }
+        if (foreignKeys != null) {
+            applyForeignKeys(db);
+        }
+        Log.d(LOGTAG, String.format("Database %s tuned: %s", db.getPath(), this));
+    }
+
+    private void applyJournalMode(@NonNull final SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // let Android know about WAL or it will not use the connection pool
+            if (journalMode == JournalMode.WAL) {
+                db.enableWriteAheadLogging();
+                return;
+            }
+            disableWriteAheadLogging(db);
+        } else if (journalMode == JournalMode.WAL && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            enableWriteAheadLogging(db);
+            return;
+        }
+        executePragma(db, "PRAGMA journal_mode = " + journalMode.name());
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static void disableWriteAheadLogging(@NonNull final SQLiteDatabase db) {
+        if (db.isWriteAheadLoggingEnabled()) {
+            db.disableWriteAheadLogging();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLogging(@NonNull final SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
+    private void applyForeignKeys(@NonNull final SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setForeignKeyConstraintsEnabled(db, foreignKeys);
+        } else {
+            executePragma(db, "PRAGMA foreign_keys = " + (foreignKeys ? "ON" : "OFF"));
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static void setForeignKeyConstraintsEnabled(@NonNull final SQLiteDatabase db, final boolean enabled) {
+        db.setForeignKeyConstraintsEnabled(enabled);
+    }
+
+    /**
+     * Some PRAGMAs return a row, Android only allows to run them as a query.
+     */
+    static void executePragma(@NonNull final SQLiteDatabase db, @NonNull final String pragma) {
+        final Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public JournalMode getJournalMode() {
+        return journalMode;
+    }
+
+    /**
+     * @param journalMode the journal mode, {@link JournalMode#WAL} let readers run concurrently with
+     *                    a writer and makes commits cheaper, it is enabled through
+     *                    {@link SQLiteDatabase#enableWriteAheadLogging()} on Android 3.0+ and ignored before
+     */
+    public void setJournalMode(JournalMode journalMode) {
+        this.journalMode = journalMode;
+    }
+
+    public Synchronous getSynchronous() {
+        return synchronous;
+    }
+
+    public void setSynchronous(Synchronous synchronous) {
+        this.synchronous = synchronous;
+    }
+
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @param pageSize the page size in bytes, a power of two between 512 and 65536
+     */
+    public void setPageSize(Integer pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public AutoVacuum getAutoVacuum() {
+        return autoVacuum;
+    }
+
+    /**
+     * @param autoVacuum the auto vacuum mode, like the page size it only takes effect if set before
+     *                   the first table is created, see
+     *                   {@link ADMEDatabaseMaintenance#enableIncrementalVacuum(SQLiteDatabase)} for
+     *                   existing databases
+     */
+    public void setAutoVacuum(AutoVacuum autoVacuum) {
+        this.autoVacuum = autoVacuum;
+    }
+
+    public Integer getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * @param cacheSize the cache size, in pages if positive or in KiB if negative
+     */
+    public void setCacheSize(Integer cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    public Long getMmapSize() {
+        return mmapSize;
+    }
+
+    /**
+     * @param mmapSize the maximum number of bytes of the database file accessed with memory mapped I/O
+     */
+    public void setMmapSize(Long mmapSize) {
+        this.mmapSize = mmapSize;
+    }
+
+    public TempStore getTempStore() {
+        return tempStore;
+    }
+
+    public void setTempStore(TempStore tempStore) {
+        this.tempStore = tempStore;
+    }
+
+    public Boolean getForeignKeys() {
+        return foreignKeys;
+    }
+
+    /**
+     * @param foreignKeys <em>true</em> to enforce the foreign key constraints, see
+     *                    {@link com.danielesegato.adme.annotation.ADMEField#foreign()}
+     */
+    public void setForeignKeys(Boolean foreignKeys) {
+        this.foreignKeys = foreignKeys;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "journal_mode=%s, synchronous=%s, page_size=%s, auto_vacuum=%s, cache_size=%s, mmap_size=%s, temp_store=%s, foreign_keys=%s",
+                journalMode, synchronous, pageSize, autoVacuum, cacheSize, mmapSize, tempStore, foreignKeys);
+    }
+}
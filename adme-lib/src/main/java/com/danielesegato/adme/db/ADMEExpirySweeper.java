@@ -0,0 +1,162 @@
+package com.danielesegato.adme.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+
+import com.danielesegato.adme.config.ADMEConfigUtils;
+import com.danielesegato.adme.config.ADMEEntityConfig;
+import com.danielesegato.adme.utils.SQLStringHelper;
+
+/**
+ * Delete the expired rows of the entities declared with an
+ * {@link com.danielesegato.adme.annotation.ADMEEntity#expiryColumn()}.
+ * <p/>
+ * The rows are deleted in small chunks, oldest expiry first, every chunk in its own transaction:
+ * the other writers get the database lock between two chunks instead of waiting for a single
+ * huge DELETE. Once done the free pages are given back to the file system with an incremental
+ * vacuum, if the database has <code>auto_vacuum=INCREMENTAL</code>, see
+ * {@link ADMEDatabaseMaintenance}.
+ * <p/>
+ * Run it from a background thread, ex. a periodic job:
+ * <pre>
+ * new ADMEExpirySweeper().sweep(db, MyCacheEntry.class);
+ * </pre>
+ * The {@link com.danielesegato.adme.provider.ADMEContentProvider} sweeps all the entities of its
+ * components with a single change notification per table, see
+ * {@link com.danielesegato.adme.provider.ADMEContentProvider#sweepExpiredRows()}.
+ */
+public class ADMEExpirySweeper {
+    /**
+     * Name of the {@link android.content.ContentResolver#call(android.net.Uri, String, String, android.os.Bundle)}
+     * method asking an {@link com.danielesegato.adme.provider.ADMEContentProvider} to sweep the
+     * expired rows. Only this app and the callers holding the write permission of the provider
+     * are allowed, see {@link com.danielesegato.adme.provider.ADMEContentProvider#isCallAllowed(String)}.
+     */
+    public static final String CALL_METHOD = "adme_sweep_expired";
+    /**
+     * Name of the int extra of the call result holding the number of rows deleted.
+     */
+    public static final String EXTRA_ROWS = "rows";
+    /**
+     * Default number of rows deleted in a single transaction.
+     */
+    public static final int DEFAULT_CHUNK_ROWS = 200;
+    /**
+     * Default maximum number of free pages released by the incremental vacuum after a sweep.
+     */
+    public static final int DEFAULT_VACUUM_PAGES = 256;
+
+    private int chunkRows = DEFAULT_CHUNK_ROWS;
+    private int vacuumPages = DEFAULT_VACUUM_PAGES;
+
+    public int getChunkRows() {
+        return chunkRows;
+    }
+
+    /**
+     * @param chunkRows the number of rows deleted in a single transaction, rows with the same expiry
+     *                  time are always deleted together so a chunk can be bigger
+     */
+    public void setChunkRows(int chunkRows) {
+        if (chunkRows <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid expiry sweeper chunk size %d, it must be positive", chunkRows));
+        }
+        this.chunkRows = chunkRows;
+    }
+
+    public int getVacuumPages() {
+        return vacuumPages;
+    }
+
+    /**
+     * @param vacuumPages the maximum number of free pages released after a sweep, 0 to skip the
+     *                    incremental vacuum
+     */
+    public void setVacuumPages(int vacuumPages) {
+        if (vacuumPages < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid expiry sweeper vacuum pages %d, it can't be negative", vacuumPages));
+        }
+        this.vacuumPages = vacuumPages;
+    }
+
+    /**
+     * Delete all the expired rows of an entity, a chunk per transaction, then run the incremental
+     * vacuum. Must not be called inside a transaction.
+     *
+     * @param db          the database
+     * @param entityClass the {@link com.danielesegato.adme.annotation.ADMEEntity} annotated class
+     * @return the number of rows deleted
+     * @throws IllegalArgumentException if the entity has no expiry column
+     */
+    public int sweep(@NonNull SQLiteDatabase db, @NonNull Class<?> entityClass) {
+        final ADMEEntityConfig<?> entityConfig = ADMEConfigUtils.lookupADMEEntityConfig(entityClass);
+        final long now = System.currentTimeMillis();
+        int count = 0;
+        int chunkCount;
+        do {
+            db.beginTransaction();
+            try {
+                chunkCount = sweepChunk(db, entityConfig, now);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            count += chunkCount;
+        } while (chunkCount > 0);
+        if (count > 0) {
+            incrementalVacuum(db);
+        }
+        return count;
+    }
+
+    /**
+     * Delete a chunk of the expired rows of an entity, the caller is in charge of the transaction.
+     *
+     * @param db           the database
+     * @param entityConfig the entity configuration
+     * @param now          the current time, in milliseconds since the epoch
+     * @return the number of rows deleted, 0 once there are no more expired rows
+     * @throws IllegalArgumentException if the entity has no expiry column
+     */
+    public int sweepChunk(@NonNull SQLiteDatabase db, @NonNull ADMEEntityConfig<?> entityConfig, long now) {
+        if (!entityConfig.hasExpiry()) {
+            throw new IllegalArgumentException(String.format(
+                    "Entity %s has no expiry column", entityConfig.getEntityName()));
+        }
+        final StringBuilder sb = new StringBuilder();
+        SQLStringHelper.appendQuotedIdentifier(sb, entityConfig.getExpiryFieldConfig().getColumnName());
+        final String column = sb.toString();
+        final String table = SQLStringHelper.appendEscapedEntityOrField(new StringBuilder(), entityConfig.getEntityName()).toString();
+        // the expiry of the last row of the chunk, rows with an earlier expiry are deleted first
+        long cutoff = now;
+        sb.setLength(0);
+        sb.append("SELECT ").append(column).append(" FROM ").append(table)
+                .append(" WHERE ").append(column).append(" <= ? ORDER BY ").append(column)
+                .append(" LIMIT 1 OFFSET ?");
+        final Cursor cursor = db.rawQuery(sb.toString(), new String[]{String.valueOf(now), String.valueOf(chunkRows - 1)});
+        try {
+            if (cursor.moveToFirst()) {
+                cutoff = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        return db.delete(table, column + " <= ?", new String[]{String.valueOf(cutoff)});
+    }
+
+    /**
+     * Release up to {@link #getVacuumPages()} free pages of the database file, only effective if the
+     * database has <code>auto_vacuum=INCREMENTAL</code>.
+     *
+     * @param db the database
+     */
+    public void incrementalVacuum(@NonNull SQLiteDatabase db) {
+        if (vacuumPages == 0) {
+            return;
+        }
+        ADMEDatabaseMaintenance.incrementalVacuum(db, vacuumPages);
+    }
+}
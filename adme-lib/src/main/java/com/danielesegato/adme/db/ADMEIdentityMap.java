@@ -0,0 +1,101 @@
+package com.danielesegato.adme.db;
+
+import android.support.annotation.NonNull;
+import android.support.v4.util.LongSparseArray;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The instances of the foreign entities already mapped from a cursor, by class and id: the rows
+ * referencing the same foreign entity share a single instance instead of getting a copy each.
+ * <pre>
+ * ADMEIdentityMap identityMap = new ADMEIdentityMap();
+ * List&lt;Order&gt; orders = ADME.cursorToEntityList(cursor, Order.class, identityMap);
+ * // orders.get(0).customer == orders.get(1).customer if both reference the same customer
+ * </pre>
+ * Only the foreign entities with an INTEGER id are shared. Reuse the same identity map across
+ * cursors to share the instances between lists, keep in mind it holds them until it is cleared.
+ * <p/>
+ * The instances created from a foreign key column only have the id set, the ones mapped by an
+ * {@link ADMEJoinMapper} from the joined columns are marked as mapped: a join using an identity
+ * map already holding an id only instance fills its fields in place, so the rows mapped before
+ * share the complete entity too.
+ * <p/>
+ * This class is not thread safe.
+ */
+public class ADMEIdentityMap {
+    private final Map<Class<?>, LongSparseArray<Object>> instances = new HashMap<Class<?>, LongSparseArray<Object>>();
+    private final Map<Class<?>, LongSparseArray<Boolean>> mapped = new HashMap<Class<?>, LongSparseArray<Boolean>>();
+
+    /**
+     * @param entityClass the entity class
+     * @param id          the id of the entity
+     * @param <T>         the entity type
+     * @return the instance of the entity with the given id or null if it hasn't been mapped yet
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(@NonNull Class<T> entityClass, long id) {
+        final LongSparseArray<Object> classInstances = instances.get(entityClass);
+        return classInstances != null ? (T) classInstances.get(id) : null;
+    }
+
+    /**
+     * @param entityClass the entity class
+     * @param id          the id of the entity
+     * @return true if the instance of the entity with the given id has all its fields mapped, false
+     * if it only has the id or it hasn't been mapped yet
+     */
+    public boolean isMapped(@NonNull Class<?> entityClass, long id) {
+        final LongSparseArray<Boolean> classMapped = mapped.get(entityClass);
+        return classMapped != null && classMapped.get(id, Boolean.FALSE);
+    }
+
+    /**
+     * @param entityClass the entity class
+     * @param id          the id of the entity
+     * @param instance    the instance of the entity with the given id, only the id is set
+     */
+    public void put(@NonNull Class<?> entityClass, long id, @NonNull Object instance) {
+        LongSparseArray<Object> classInstances = instances.get(entityClass);
+        if (classInstances == null) {
+            classInstances = new LongSparseArray<Object>();
+            instances.put(entityClass, classInstances);
+        }
+        classInstances.put(id, instance);
+    }
+
+    /**
+     * @param entityClass the entity class
+     * @param id          the id of the entity
+     * @param instance    the instance of the entity with the given id, all its fields are mapped
+     */
+    public void putMapped(@NonNull Class<?> entityClass, long id, @NonNull Object instance) {
+        put(entityClass, id, instance);
+        LongSparseArray<Boolean> classMapped = mapped.get(entityClass);
+        if (classMapped == null) {
+            classMapped = new LongSparseArray<Boolean>();
+            mapped.put(entityClass, classMapped);
+        }
+        classMapped.put(id, Boolean.TRUE);
+    }
+
+    /**
+     * @return the number of instances in this identity map
+     */
+    public int size() {
+        int size = 0;
+        for (LongSparseArray<Object> classInstances : instances.values()) {
+            size += classInstances.size();
+        }
+        return size;
+    }
+
+    /**
+     * Forget all the instances.
+     */
+    public void clear() {
+        instances.clear();
+        mapped.clear();
+    }
+}
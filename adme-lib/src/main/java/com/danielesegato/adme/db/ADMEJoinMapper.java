@@ -0,0 +1,330 @@
+package com.danielesegato.adme.db;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.danielesegato.adme.InternalADMEConsts;
+import com.danielesegato.adme.config.ADMEConfigUtils;
+import com.danielesegato.adme.config.ADMEEntityConfig;
+import com.danielesegato.adme.config.ADMEFieldConfig;
+import com.danielesegato.adme.config.SQLiteType;
+import com.danielesegato.adme.utils.SQLStringHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Map the rows of a JOIN query into an entity and the foreign entities it references, in a single
+ * pass. Every joined table has an alias and its columns are selected with the alias as prefix,
+ * ex. <code>c_name</code> for the <code>name</code> column of the customer table aliased as
+ * <code>c</code>:
+ * <pre>
+ * ADMEJoinMapper&lt;Order&gt; mapper = new ADMEJoinMapper&lt;Order&gt;(Order.class, "o")
+ *         .join("customer", "c")
+ *         .join("customer.address", "a");
+ * Cursor cursor = db.rawQuery("SELECT " + mapper.getSelectColumns()
+ *         + " FROM 'Order' AS o LEFT JOIN 'Customer' AS c ON c.id = o.customer_id"
+ *         + " LEFT JOIN 'Address' AS a ON a.id = c.address_id", null);
+ * List&lt;Order&gt; orders = mapper.mapList(cursor);
+ * </pre>
+ * A joined entity whose id column is NULL (no match in a LEFT JOIN) is mapped as null. The foreign
+ * fields which are not joined hold an instance with only the id, or a {@link ForeignRef} not
+ * loaded yet, as {@link com.danielesegato.adme.ADME#cursorToEntity(Cursor, Class)} does.
+ * <p/>
+ * The column indexes are resolved once per cursor. This class is not thread safe.
+ *
+ * @param <T> the type of the root entity
+ */
+public class ADMEJoinMapper<T> {
+    private static final String LOGTAG = InternalADMEConsts.LOGTAG;
+    /**
+     * Separator between the alias and the column name in the selected column names.
+     */
+    public static final String PREFIX_SEPARATOR = "_";
+
+    /**
+     * An entity of the join.
+     */
+    private static final class Node {
+        private final ADMEEntityConfig<?> entityConfig;
+        private final String alias;
+        // the foreign field of the parent entity holding this entity, null for the root
+        private final ADMEFieldConfig parentFieldConfig;
+        private final List<Node> children = new ArrayList<Node>();
+        // the mapping plan, the fields read from the cursor and their column indexes
+        private ADMEFieldConfig[] fieldsConfig;
+        private int[] columnIndexes;
+        private int idColumnIndex;
+
+        private Node(ADMEEntityConfig<?> entityConfig, String alias, ADMEFieldConfig parentFieldConfig) {
+            this.entityConfig = entityConfig;
+            this.alias = alias;
+            this.parentFieldConfig = parentFieldConfig;
+        }
+
+        private Node getChild(ADMEFieldConfig fieldConfig) {
+            for (Node child : children) {
+                if (child.parentFieldConfig == fieldConfig) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        private boolean isShareable() {
+            final ADMEFieldConfig idFieldConfig = entityConfig.getIdFieldConfig();
+            return idFieldConfig != null && idFieldConfig.getADMESerializer().getSQLiteType() == SQLiteType.INTEGER;
+        }
+    }
+
+    private final Node root;
+    private final List<Node> nodes = new ArrayList<Node>();
+    private Cursor plannedCursor;
+
+    /**
+     * @param rootClass the {@link com.danielesegato.adme.annotation.ADMEEntity} annotated class of
+     *                  the root entity
+     * @param rootAlias the alias of the root entity table in the query
+     */
+    public ADMEJoinMapper(@NonNull Class<T> rootClass, @NonNull String rootAlias) {
+        root = new Node(ADMEConfigUtils.lookupADMEEntityConfig(rootClass), rootAlias, null);
+        nodes.add(root);
+    }
+
+    /**
+     * Join a foreign entity.
+     *
+     * @param path  the foreign field holding the entity, a Java field name of the root entity or a
+     *              path of Java field names separated by dots for the foreign fields of the
+     *              entities already joined (ex. <code>customer.address</code>)
+     * @param alias the alias of the foreign entity table in the query
+     * @return this mapper
+     * @throws IllegalArgumentException if the path is not a foreign field, its parent is not
+     *                                  joined or the alias is already used
+     */
+    public ADMEJoinMapper<T> join(@NonNull String path, @NonNull String alias) {
+        for (Node node : nodes) {
+            if (node.alias.equals(alias)) {
+                throw new IllegalArgumentException(String.format(
+                        "Alias %s is already used by entity %s", alias, node.entityConfig.getEntityName()));
+            }
+        }
+        final String[] fieldNames = path.split("\\.");
+        Node parent = root;
+        for (int i = 0; i < fieldNames.length; i++) {
+            final ADMEFieldConfig fieldConfig = findForeignFieldConfig(parent.entityConfig, fieldNames[i]);
+            final Node child = parent.getChild(fieldConfig);
+            if (i < fieldNames.length - 1) {
+                if (child == null) {
+                    throw new IllegalArgumentException(String.format(
+                            "Can't join %s, the foreign field %s is not joined yet", path, fieldNames[i]));
+                }
+                parent = child;
+            } else {
+                if (child != null) {
+                    throw new IllegalArgumentException(String.format(
+                            "Foreign field %s is already joined with alias %s", path, child.alias));
+                }
+                final Node node = new Node(ADMEConfigUtils.lookupADMEEntityConfig(fieldConfig.getForeignClass()), alias, fieldConfig);
+                parent.children.add(node);
+                nodes.add(node);
+            }
+        }
+        plannedCursor = null;
+        return this;
+    }
+
+    private static ADMEFieldConfig findForeignFieldConfig(ADMEEntityConfig<?> entityConfig, String fieldName) {
+        for (ADMEFieldConfig fieldConfig : entityConfig.getFieldsConfig()) {
+            if (fieldConfig.getJavaField().getName().equals(fieldName)) {
+                if (!fieldConfig.isForeign()) {
+                    break;
+                }
+                return fieldConfig;
+            }
+        }
+        throw new IllegalArgumentException(String.format(
+                "Entity %s has no foreign field %s", entityConfig.getEntityName(), fieldName));
+    }
+
+    /**
+     * @return the columns of all the joined entities, as <code>alias."column" AS "alias_column"</code>
+     */
+    public String[] getProjection() {
+        final List<String> projection = new ArrayList<String>();
+        final StringBuilder sb = new StringBuilder();
+        for (Node node : nodes) {
+            for (ADMEFieldConfig fieldConfig : node.entityConfig.getFieldsConfig()) {
+                sb.setLength(0);
+                SQLStringHelper.appendQuotedIdentifier(sb, node.alias).append('.');
+                SQLStringHelper.appendQuotedIdentifier(sb, fieldConfig.getColumnName()).append(" AS ");
+                SQLStringHelper.appendQuotedIdentifier(sb, node.alias + PREFIX_SEPARATOR + fieldConfig.getColumnName());
+                projection.add(sb.toString());
+            }
+        }
+        return projection.toArray(new String[projection.size()]);
+    }
+
+    /**
+     * @return the {@link #getProjection()} columns separated by commas, for a SELECT statement
+     */
+    public String getSelectColumns() {
+        return TextUtils.join(", ", getProjection());
+    }
+
+    /**
+     * Map the current row of the cursor.
+     *
+     * @param cursor the cursor, positioned on a row
+     * @return the root entity
+     */
+    public
+    @NonNull
+    T map(@NonNull Cursor cursor) {
+        return map(cursor, null);
+    }
+
+    /**
+     * Map the current row of the cursor.
+     *
+     * @param cursor      the cursor, positioned on a row
+     * @param identityMap the instances of the joined entities to share, they are only mapped the
+     *                    first time their id is found (an instance with only the id, put by
+     *                    {@link com.danielesegato.adme.ADME#cursorToEntityList(Cursor, Class, ADMEIdentityMap)},
+     *                    is filled), or null to map a new instance on every row
+     * @return the root entity
+     */
+    @SuppressWarnings("unchecked")
+    public
+    @NonNull
+    T map(@NonNull Cursor cursor, @Nullable ADMEIdentityMap identityMap) {
+        if (cursor != plannedCursor) {
+            plan(cursor);
+        }
+        try {
+            return (T) mapNode(cursor, root, identityMap);
+        } catch (IllegalAccessException e) {
+            String msg = String.format("Error mapping the join of entity %s, couldn't access some field", root.entityConfig.getEntityName());
+            Log.e(LOGTAG, msg, e);
+            throw new RuntimeException(msg, e);
+        }
+    }
+
+    /**
+     * Map all the rows of the cursor.
+     *
+     * @param cursor the cursor
+     * @return the root entities, one per row
+     */
+    public
+    @NonNull
+    List<T> mapList(@NonNull Cursor cursor) {
+        return mapList(cursor, null);
+    }
+
+    /**
+     * Map all the rows of the cursor.
+     *
+     * @param cursor      the cursor
+     * @param identityMap the instances of the joined entities to share, see
+     *                    {@link #map(Cursor, ADMEIdentityMap)}
+     * @return the root entities, one per row
+     */
+    public
+    @NonNull
+    List<T> mapList(@NonNull Cursor cursor, @Nullable ADMEIdentityMap identityMap) {
+        final List<T> list = new ArrayList<T>(cursor.getCount());
+        if (cursor.moveToFirst()) {
+            do {
+                list.add(map(cursor, identityMap));
+            } while (cursor.moveToNext());
+        }
+        return list;
+    }
+
+    private void plan(Cursor cursor) {
+        for (Node node : nodes) {
+            final List<ADMEFieldConfig> fieldsConfig = new ArrayList<ADMEFieldConfig>();
+            for (ADMEFieldConfig fieldConfig : node.entityConfig.getFieldsConfig()) {
+                // the joined foreign fields are mapped from the columns of their own entity
+                if (node.getChild(fieldConfig) == null) {
+                    fieldsConfig.add(fieldConfig);
+                }
+            }
+            node.fieldsConfig = fieldsConfig.toArray(new ADMEFieldConfig[fieldsConfig.size()]);
+            node.columnIndexes = new int[node.fieldsConfig.length];
+            for (int i = 0; i < node.fieldsConfig.length; i++) {
+                node.columnIndexes[i] = cursor.getColumnIndex(node.alias + PREFIX_SEPARATOR + node.fieldsConfig[i].getColumnName());
+            }
+            final ADMEFieldConfig idFieldConfig = node.entityConfig.getIdFieldConfig();
+            node.idColumnIndex = idFieldConfig != null ? cursor.getColumnIndex(node.alias + PREFIX_SEPARATOR + idFieldConfig.getColumnName()) : -1;
+        }
+        plannedCursor = cursor;
+    }
+
+    private Object mapNode(Cursor cursor, Node node, ADMEIdentityMap identityMap) throws IllegalAccessException {
+        final Class<?> entityClass = node.entityConfig.getJavaClass();
+        final boolean shared = node != root && identityMap != null && node.idColumnIndex >= 0 && node.isShareable();
+        if (node != root && node.idColumnIndex >= 0 && cursor.isNull(node.idColumnIndex)) {
+            // no row joined
+            return null;
+        }
+        Object instance = null;
+        if (shared) {
+            final long id = cursor.getLong(node.idColumnIndex);
+            if (identityMap.isMapped(entityClass, id)) {
+                return identityMap.get(entityClass, id);
+            }
+            // an instance with only the id, from a foreign key column: fill it
+            instance = identityMap.get(entityClass, id);
+        }
+        if (instance == null) {
+            instance = newInstance(entityClass);
+        }
+        for (int i = 0; i < node.fieldsConfig.length; i++) {
+            final int columnIndex = node.columnIndexes[i];
+            if (columnIndex < 0) {
+                continue;
+            }
+            final ADMEFieldConfig fieldConfig = node.fieldsConfig[i];
+            final Object fieldValue = fieldConfig.getADMESerializer().sqlToJava(cursor, columnIndex, fieldConfig);
+            if (!fieldConfig.isForeign()) {
+                fieldConfig.getJavaField().set(instance, fieldValue);
+            } else if (fieldValue == null) {
+                fieldConfig.getJavaField().set(instance, null);
+            } else if (fieldConfig.isForeignRef()) {
+                fieldConfig.getJavaField().set(instance, ForeignRef.forId(fieldConfig.getForeignClass(), fieldValue));
+            } else {
+                final Object foreignInstance = newInstance(fieldConfig.getJavaField().getType());
+                fieldConfig.getForeignFieldConfig().getJavaField().set(foreignInstance, fieldValue);
+                fieldConfig.getJavaField().set(instance, foreignInstance);
+            }
+        }
+        for (Node child : node.children) {
+            final Object childInstance = mapNode(cursor, child, identityMap);
+            if (child.parentFieldConfig.isForeignRef()) {
+                // the joined entity is already loaded in the reference
+                child.parentFieldConfig.getJavaField().set(instance, childInstance != null ? ForeignRef.of(childInstance) : null);
+            } else {
+                child.parentFieldConfig.getJavaField().set(instance, childInstance);
+            }
+        }
+        if (shared) {
+            identityMap.putMapped(entityClass, cursor.getLong(node.idColumnIndex), instance);
+        }
+        return instance;
+    }
+
+    private static Object newInstance(Class<?> clazz) {
+        try {
+            return clazz.newInstance();
+        } catch (InstantiationException e) {
+            throw new RuntimeException(String.format("the instance for class %s cannot be created", clazz.getName()), e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(String.format("the default constructor for class %s is not visible", clazz.getName()), e);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.danielesegato.adme.db;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+
+import com.danielesegato.adme.ADME;
+import com.danielesegato.adme.config.ADMEConfigUtils;
+import com.danielesegato.adme.config.ADMEEntityConfig;
+import com.danielesegato.adme.config.ADMEFieldConfig;
+import com.danielesegato.adme.utils.SQLStringHelper;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Build the {@link ContentProviderOperation}s to insert or update a set of entities, of any type,
+ * with a single {@link android.content.ContentResolver#applyBatch(String, ArrayList)} call.
+ * <p/>
+ * An entity whose generated ID is not set (null or 0) is inserted, otherwise it is updated
+ * selecting it by ID. Entities without a generated ID are always inserted, use
+ * {@link #addInsert(Uri, Object)} and {@link #addUpdate(Uri, Object)} to choose explicitly.
+ * <p/>
+ * When an entity references, through a foreign field, an entity inserted in the same batch the
+ * foreign key column is filled with a back reference to the ID generated by the parent insert,
+ * the parent operation is always placed before the operations referencing it:
+ * <pre>
+ * ArrayList&lt;ContentProviderOperation&gt; operations = new ADMEOperationsBuilder()
+ *         .add(AuthorComponent.CONTENT_URI, author)
+ *         .addAll(BookComponent.CONTENT_URI, author.getBooks())
+ *         .build();
+ * getContentResolver().applyBatch(AUTHORITY, operations);
+ * </pre>
+ * A yield point is allowed every {@link #getYieldInterval()} operations, never on an operation
+ * with a back reference so that a child is committed together with its parent whenever possible.
+ */
+public class ADMEOperationsBuilder {
+    /**
+     * Default number of operations between yield points.
+     */
+    public static final int DEFAULT_YIELD_INTERVAL = 100;
+
+    private enum Kind {
+        AUTO, INSERT, UPDATE
+    }
+
+    private static final class Entry {
+        final Uri uri;
+        final Object entity;
+        final Kind kind;
+
+        Entry(Uri uri, Object entity, Kind kind) {
+            this.uri = uri;
+            this.entity = entity;
+            this.kind = kind;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final Map<Object, Entry> entriesByEntity = new IdentityHashMap<Object, Entry>();
+    private int yieldInterval = DEFAULT_YIELD_INTERVAL;
+
+    public int getYieldInterval() {
+        return yieldInterval;
+    }
+
+    /**
+     * @param yieldInterval number of operations between yield points, 0 to never allow a yield
+     * @return this builder
+     */
+    public ADMEOperationsBuilder setYieldInterval(int yieldInterval) {
+        if (yieldInterval < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid yield interval %d, it can't be negative", yieldInterval));
+        }
+        this.yieldInterval = yieldInterval;
+        return this;
+    }
+
+    /**
+     * Insert or update (if it has a generated ID) the entity.
+     *
+     * @param uri    the content Uri of the entity
+     * @param entity the entity, its class must be annotated with {@link com.danielesegato.adme.annotation.ADMEEntity}
+     * @return this builder
+     */
+    public <T> ADMEOperationsBuilder add(@NonNull Uri uri, @NonNull T entity) {
+        return add(new Entry(uri, entity, Kind.AUTO));
+    }
+
+    /**
+     * Insert or update (if they have a generated ID) the entities.
+     *
+     * @param uri      the content Uri of the entities
+     * @param entities the entities, their class must be annotated with {@link com.danielesegato.adme.annotation.ADMEEntity}
+     * @return this builder
+     */
+    public <T> ADMEOperationsBuilder addAll(@NonNull Uri uri, @NonNull List<T> entities) {
+        for (T entity : entities) {
+            add(uri, entity);
+        }
+        return this;
+    }
+
+    /**
+     * Insert the entity, including its ID if it is not generated.
+     *
+     * @param uri    the content Uri of the entity
+     * @param entity the entity, its class must be annotated with {@link com.danielesegato.adme.annotation.ADMEEntity}
+     * @return this builder
+     */
+    public <T> ADMEOperationsBuilder addInsert(@NonNull Uri uri, @NonNull T entity) {
+        return add(new Entry(uri, entity, Kind.INSERT));
+    }
+
+    /**
+     * Update the entity selecting it by ID.
+     *
+     * @param uri    the content Uri of the entity
+     * @param entity the entity, its class must be annotated with {@link com.danielesegato.adme.annotation.ADMEEntity}
+     *               and have an ID
+     * @return this builder
+     */
+    public <T> ADMEOperationsBuilder addUpdate(@NonNull Uri uri, @NonNull T entity) {
+        return add(new Entry(uri, entity, Kind.UPDATE));
+    }
+
+    private ADMEOperationsBuilder add(Entry entry) {
+        if (entriesByEntity.containsKey(entry.entity)) {
+            throw new IllegalArgumentException(String.format(
+                    "Entity %s has already been added to the batch", entry.entity));
+        }
+        entries.add(entry);
+        entriesByEntity.put(entry.entity, entry);
+        return this;
+    }
+
+    /**
+     * @return the operations, parents before their children, in the order the entities have been
+     * added otherwise
+     */
+    public ArrayList<ContentProviderOperation> build() {
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(entries.size());
+        // index of the insert operation of every emitted entity, -1 for updates, null while emitting
+        final Map<Object, Integer> emitted = new IdentityHashMap<Object, Integer>();
+        final int[] opsSinceYield = new int[]{0};
+        for (Entry entry : entries) {
+            emit(entry, operations, emitted, opsSinceYield);
+        }
+        return operations;
+    }
+
+    private void emit(Entry entry, ArrayList<ContentProviderOperation> operations, Map<Object, Integer> emitted, int[] opsSinceYield) {
+        if (emitted.containsKey(entry.entity)) {
+            return;
+        }
+        emitted.put(entry.entity, null);
+        final ADMEEntityConfig<?> entityConfig = ADMEConfigUtils.lookupADMEEntityConfig(entry.entity.getClass());
+        final ADMEFieldConfig idFieldConfig = entityConfig.getIdFieldConfig();
+        final Object id = idFieldConfig != null ? getFieldValue(idFieldConfig, entry.entity) : null;
+        final boolean insert;
+        switch (entry.kind) {
+            case INSERT:
+                insert = true;
+                break;
+            case UPDATE:
+                if (idFieldConfig == null) {
+                    throw new IllegalArgumentException(String.format(
+                            "Entity %s has no ID, it can't be updated", entityConfig.getEntityName()));
+                }
+                insert = false;
+                break;
+            default:
+                insert = idFieldConfig == null || !idFieldConfig.isGeneratedId() || isUnsetId(id);
+                break;
+        }
+
+        // parents inserted in this batch go first, the foreign keys of those with a generated id
+        // become back references
+        final Map<String, Integer> backReferences = new LinkedHashMap<String, Integer>();
+        for (ADMEFieldConfig fieldConfig : entityConfig.getFieldsConfig()) {
+            if (!fieldConfig.isForeign()) {
+                continue;
+            }
+            final Object fieldValue = getFieldValue(fieldConfig, entry.entity);
+            // a lazy reference can only be a parent in the batch once loaded
+            final Object parent = fieldConfig.isForeignRef() && fieldValue != null ? ((ForeignRef<?>) fieldValue).peek() : fieldValue;
+            final Entry parentEntry = parent != null ? entriesByEntity.get(parent) : null;
+            if (parentEntry == null) {
+                continue;
+            }
+            emit(parentEntry, operations, emitted, opsSinceYield);
+            final Integer parentIndex = emitted.get(parent);
+            // null: circular reference, the parent is not emitted yet and can't be referenced
+            // -1: the parent id is already known, the foreign key value is correct
+            if (parentIndex != null && parentIndex >= 0) {
+                backReferences.put(fieldConfig.getColumnName(), parentIndex);
+            }
+        }
+
+        final ContentValues values = ADME.entityToContentValues(null, entry.entity, !insert || !isGeneratedId(idFieldConfig), true);
+        final ContentProviderOperation.Builder builder;
+        if (insert) {
+            builder = ContentProviderOperation.newInsert(entry.uri);
+        } else {
+            values.remove(idFieldConfig.getColumnName());
+            final StringBuilder sb = new StringBuilder();
+            SQLStringHelper.appendQuotedIdentifier(sb, idFieldConfig.getColumnName()).append(" = ?");
+            builder = ContentProviderOperation.newUpdate(entry.uri)
+                    .withSelection(sb.toString(), new String[]{String.valueOf(id)});
+        }
+        for (String column : backReferences.keySet()) {
+            values.remove(column);
+        }
+        builder.withValues(values);
+        for (Map.Entry<String, Integer> backReference : backReferences.entrySet()) {
+            builder.withValueBackReference(backReference.getKey(), backReference.getValue());
+        }
+        if (yieldInterval > 0 && opsSinceYield[0] >= yieldInterval && backReferences.isEmpty()) {
+            builder.withYieldAllowed(true);
+            opsSinceYield[0] = 0;
+        }
+        opsSinceYield[0]++;
+        // only the insert Uri of a generated id holds the id, as a number, for the back references
+        emitted.put(entry.entity, insert && isGeneratedId(idFieldConfig) ? operations.size() : -1);
+        operations.add(builder.build());
+    }
+
+    private static boolean isGeneratedId(ADMEFieldConfig idFieldConfig) {
+        return idFieldConfig != null && idFieldConfig.isGeneratedId();
+    }
+
+    private static boolean isUnsetId(Object id) {
+        return id == null || (id instanceof Number && ((Number) id).longValue() == 0L);
+    }
+
+    private static Object getFieldValue(ADMEFieldConfig fieldConfig, Object entity) {
+        try {
+            return fieldConfig.getJavaField().get(entity);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(String.format("Couldn't access field %s of entity %s",
+                    fieldConfig.getJavaField().getName(), fieldConfig.getADMEEntityConfig().getEntityName()), e);
+        }
+    }
+}
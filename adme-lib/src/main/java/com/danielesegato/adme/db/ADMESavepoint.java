@@ -0,0 +1,123 @@
+package com.danielesegato.adme.db;
+
+import android.content.ContentProviderOperation;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+
+import com.danielesegato.adme.utils.SQLStringHelper;
+
+import java.util.List;
+
+/**
+ * A SQLite savepoint, a nested transaction which can be rolled back without rolling back the
+ * enclosing transaction: unlike the nested transactions of {@link SQLiteDatabase} a failure inside
+ * a savepoint doesn't doom the whole transaction.
+ * <p/>
+ * Savepoints can only be opened inside a transaction started with the {@link SQLiteDatabase} API:
+ * <pre>
+ * db.beginTransaction();
+ * try {
+ *     ADMESavepoint savepoint = ADMESavepoint.begin(db, "import");
+ *     try {
+ *         ...
+ *         savepoint.release();
+ *     } catch (SQLException e) {
+ *         savepoint.rollback();
+ *     }
+ *     db.setTransactionSuccessful();
+ * } finally {
+ *     db.endTransaction();
+ * }
+ * </pre>
+ * The transaction can't be yielded while a savepoint is open.
+ * <p/>
+ * {@link SQLiteContentProvider} and {@link com.danielesegato.adme.provider.ADMEContentProvider} use
+ * savepoints for the batches applied while applying another batch and, when requested with the
+ * {@link #QUERY_PARAMETER} query parameter in the Uri of the first operation, to isolate the
+ * sub-batches of a batch: the operations between two yield points. A failing sub-batch is rolled
+ * back alone, its results are null, and the rest of the batch is committed:
+ * <pre>
+ * Uri uri = MyComponent.CONTENT_URI.buildUpon()
+ *         .appendQueryParameter(ADMESavepoint.QUERY_PARAMETER, "true")
+ *         .build();
+ * </pre>
+ */
+public class ADMESavepoint {
+    /**
+     * Name of the Uri query parameter asking to isolate every sub-batch of a batch in a savepoint.
+     */
+    public static final String QUERY_PARAMETER = "isolateSubBatches";
+
+    private final SQLiteDatabase db;
+    private final String quotedName;
+    private boolean open = true;
+
+    private ADMESavepoint(SQLiteDatabase db, String name) {
+        this.db = db;
+        this.quotedName = SQLStringHelper.appendQuotedIdentifier(new StringBuilder(), name).toString();
+    }
+
+    /**
+     * Open a savepoint.
+     *
+     * @param db   the database, with a transaction in progress on the calling thread
+     * @param name the name of the savepoint
+     * @return the savepoint
+     * @throws IllegalStateException if there is no transaction in progress
+     */
+    public static ADMESavepoint begin(@NonNull SQLiteDatabase db, @NonNull String name) {
+        if (!db.inTransaction()) {
+            throw new IllegalStateException(String.format(
+                    "Savepoint %s can't be opened outside of a transaction", name));
+        }
+        final ADMESavepoint savepoint = new ADMESavepoint(db, name);
+        db.execSQL("SAVEPOINT " + savepoint.quotedName);
+        return savepoint;
+    }
+
+    /**
+     * @param operations the operations of a batch
+     * @return true if the caller asked to isolate the sub-batches with the {@link #QUERY_PARAMETER}
+     */
+    public static boolean isSubBatchIsolationRequested(@NonNull List<ContentProviderOperation> operations) {
+        if (operations.isEmpty()) {
+            return false;
+        }
+        final Uri uri = operations.get(0).getUri();
+        return uri != null && Boolean.parseBoolean(uri.getQueryParameter(QUERY_PARAMETER));
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Keep the changes made since the savepoint has been opened, they are committed with the
+     * enclosing transaction.
+     */
+    public void release() {
+        checkOpen();
+        db.execSQL("RELEASE " + quotedName);
+        open = false;
+    }
+
+    /**
+     * Discard the changes made since the savepoint has been opened, the enclosing transaction
+     * goes on.
+     */
+    public void rollback() {
+        checkOpen();
+        // Android executes the statements starting with "ROL" as a rollback of the whole
+        // transaction, the comment avoids it
+        db.execSQL("/* savepoint */ ROLLBACK TO " + quotedName);
+        db.execSQL("RELEASE " + quotedName);
+        open = false;
+    }
+
+    private void checkOpen() {
+        if (!open) {
+            throw new IllegalStateException(String.format("Savepoint %s is already closed", quotedName));
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.danielesegato.adme.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+
+import com.danielesegato.adme.ADME;
+import com.danielesegato.adme.config.ADMEConfigUtils;
+import com.danielesegato.adme.config.ADMEEntityConfig;
+import com.danielesegato.adme.config.ADMEFieldConfig;
+import com.danielesegato.adme.utils.SQLStringHelper;
+
+/**
+ * A lazy reference to a foreign entity, to use as type of a field marked as
+ * {@link com.danielesegato.adme.annotation.ADMEField#foreign()} instead of the entity class:
+ * <pre>
+ * {@literal @}ADMEField(foreign = true)
+ * private ForeignRef&lt;Customer&gt; customer;
+ * </pre>
+ * Mapping a row only stores the foreign id in the reference, without instantiating the foreign
+ * entity. The entity is loaded the first time {@link #get()} is called, through the loader of the
+ * reference or the default one, and kept for the next calls:
+ * <pre>
+ * ForeignRef.setDefaultLoader(new ForeignRef.DatabaseLoader(db));
+ * ForeignRef.setDefaultCache(new ForeignRef.MemoryCache(100));
+ * ...
+ * Customer customer = order.getCustomer().get();
+ * </pre>
+ * The optional cache is shared by all the references, so that the references to the same entity
+ * load it once. {@link com.danielesegato.adme.ADME#resolveForeign(SQLiteDatabase, java.util.List, String)}
+ * loads the references of a whole list with a few queries.
+ * <p/>
+ * The loaders and caches must be thread safe.
+ *
+ * @param <T> the type of the foreign entity
+ */
+public class ForeignRef<T> {
+    /**
+     * Load the foreign entities of the references.
+     */
+    public interface Loader {
+        /**
+         * @param entityClass the entity class
+         * @param id          the id of the entity
+         * @param <T>         the entity type
+         * @return the entity or null if it doesn't exist
+         */
+        <T> T load(@NonNull Class<T> entityClass, @NonNull Object id);
+    }
+
+    /**
+     * Keep the foreign entities loaded by the references.
+     */
+    public interface Cache {
+        /**
+         * @param entityClass the entity class
+         * @param id          the id of the entity
+         * @param <T>         the entity type
+         * @return the cached entity or null if not cached
+         */
+        <T> T get(@NonNull Class<T> entityClass, @NonNull Object id);
+
+        /**
+         * @param entityClass the entity class
+         * @param id          the id of the entity
+         * @param entity      the entity
+         */
+        void put(@NonNull Class<?> entityClass, @NonNull Object id, @NonNull Object entity);
+    }
+
+    /**
+     * Load the foreign entities from a database, by id.
+     */
+    public static class DatabaseLoader implements Loader {
+        private final SQLiteDatabase db;
+
+        public DatabaseLoader(@NonNull SQLiteDatabase db) {
+            this.db = db;
+        }
+
+        @Override
+        public <T> T load(@NonNull Class<T> entityClass, @NonNull Object id) {
+            final ADMEEntityConfig<T> entityConfig = ADMEConfigUtils.lookupADMEEntityConfig(entityClass);
+            final StringBuilder sb = new StringBuilder();
+            sb.append("SELECT * FROM ");
+            SQLStringHelper.appendEscapedEntityOrField(sb, entityConfig.getEntityName());
+            sb.append(" WHERE ");
+            SQLStringHelper.appendQuotedIdentifier(sb, getIdFieldConfig(entityConfig).getColumnName());
+            sb.append(" = ?");
+            final Cursor cursor = db.rawQuery(sb.toString(), new String[]{String.valueOf(id)});
+            try {
+                return cursor.moveToFirst() ? ADME.cursorToEntity(cursor, entityClass) : null;
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Keep the most recently used foreign entities in memory.
+     */
+    public static class MemoryCache implements Cache {
+        private final LruCache<String, Object> entities;
+
+        /**
+         * @param maxSize the maximum number of entities kept
+         */
+        public MemoryCache(int maxSize) {
+            entities = new LruCache<String, Object>(maxSize);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T> T get(@NonNull Class<T> entityClass, @NonNull Object id) {
+            return (T) entities.get(getKey(entityClass, id));
+        }
+
+        @Override
+        public void put(@NonNull Class<?> entityClass, @NonNull Object id, @NonNull Object entity) {
+            entities.put(getKey(entityClass, id), entity);
+        }
+
+        /**
+         * Forget all the entities.
+         */
+        public void clear() {
+            entities.evictAll();
+        }
+
+        private static String getKey(Class<?> entityClass, Object id) {
+            return entityClass.getName() + ':' + id;
+        }
+    }
+
+    private static volatile Loader defaultLoader;
+    private static volatile Cache defaultCache;
+
+    private final Class<T> entityClass;
+    private Object id;
+    private T entity;
+    private Loader loader;
+
+    private ForeignRef(Class<T> entityClass, Object id, T entity) {
+        this.entityClass = entityClass;
+        this.id = id;
+        this.entity = entity;
+    }
+
+    /**
+     * @param entityClass the {@link com.danielesegato.adme.annotation.ADMEEntity} annotated class
+     * @param id          the id of the entity
+     * @param <T>         the entity type
+     * @return a reference to the entity, not loaded yet
+     */
+    public static <T> ForeignRef<T> forId(@NonNull Class<T> entityClass, @NonNull Object id) {
+        return new ForeignRef<T>(entityClass, id, null);
+    }
+
+    /**
+     * @param entity the entity, with its id set
+     * @param <T>    the entity type
+     * @return a reference to the entity, already loaded
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ForeignRef<T> of(@NonNull T entity) {
+        final Class<T> entityClass = (Class<T>) entity.getClass();
+        return new ForeignRef<T>(entityClass, getId(entity), entity);
+    }
+
+    /**
+     * @param loader the loader used by the references without their own loader, or null
+     */
+    public static void setDefaultLoader(@Nullable Loader loader) {
+        defaultLoader = loader;
+    }
+
+    /**
+     * @param cache the cache shared by all the references, or null (default) for no cache
+     */
+    public static void setDefaultCache(@Nullable Cache cache) {
+        defaultCache = cache;
+    }
+
+    public Class<T> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * @return the id of the foreign entity
+     */
+    public synchronized Object getId() {
+        return id;
+    }
+
+    /**
+     * @param loader the loader of this reference, or null to use the default one
+     */
+    public synchronized void setLoader(@Nullable Loader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * @return true if the foreign entity has already been loaded
+     */
+    public synchronized boolean isLoaded() {
+        return entity != null;
+    }
+
+    /**
+     * @return the foreign entity if already loaded, null otherwise, without loading it
+     */
+    public synchronized T peek() {
+        return entity;
+    }
+
+    /**
+     * Load the foreign entity, if not already loaded, from the cache or with the loader of this
+     * reference or the default one.
+     *
+     * @return the foreign entity or null if it doesn't exist
+     * @throws IllegalStateException if the entity is not loaded and there is no loader
+     */
+    public synchronized T get() {
+        if (entity != null) {
+            return entity;
+        }
+        final Loader loader = this.loader != null ? this.loader : defaultLoader;
+        if (loader == null) {
+            throw new IllegalStateException(String.format(
+                    "No loader for the reference to %s %s, set a default loader", entityClass.getSimpleName(), id));
+        }
+        return get(loader);
+    }
+
+    /**
+     * Load the foreign entity, if not already loaded, from the cache or with the given loader.
+     *
+     * @param loader the loader
+     * @return the foreign entity or null if it doesn't exist
+     */
+    public synchronized T get(@NonNull Loader loader) {
+        if (entity != null) {
+            return entity;
+        }
+        final Cache cache = defaultCache;
+        if (cache != null) {
+            entity = cache.get(entityClass, id);
+        }
+        if (entity == null) {
+            entity = loader.load(entityClass, id);
+            if (cache != null && entity != null) {
+                cache.put(entityClass, id, entity);
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * Point this reference to another entity, already loaded.
+     *
+     * @param entity the entity, with its id set
+     */
+    public synchronized void set(@NonNull T entity) {
+        this.id = getId(entity);
+        this.entity = entity;
+    }
+
+    private static Object getId(Object entity) {
+        final ADMEFieldConfig idFieldConfig = getIdFieldConfig(ADMEConfigUtils.lookupADMEEntityConfig(entity.getClass()));
+        final Object id;
+        try {
+            id = idFieldConfig.getJavaField().get(entity);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(String.format("Couldn't access the id of entity %s", entity), e);
+        }
+        if (id == null) {
+            throw new IllegalArgumentException(String.format("Entity %s has no id, it can't be referenced", entity));
+        }
+        return id;
+    }
+
+    private static ADMEFieldConfig getIdFieldConfig(ADMEEntityConfig<?> entityConfig) {
+        final ADMEFieldConfig idFieldConfig = entityConfig.getIdFieldConfig();
+        if (idFieldConfig == null) {
+            throw new IllegalArgumentException(String.format(
+                    "Entity %s has no ID, it can't be referenced", entityConfig.getEntityName()));
+        }
+        return idFieldConfig;
+    }
+}
@@ -14,9 +14,16 @@ import android.database.sqlite.SQLiteTransactionListener;
 import android.net.Uri;
 import android.os.Build;
 import android.os.CancellationSignal;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.danielesegato.adme.diagnostics.ADMEMetricsListener;
+import com.danielesegato.adme.diagnostics.ADMESlowOperationLog;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -27,14 +34,22 @@ public abstract class SQLiteContentProvider extends ContentProvider
 
     private static final String TAG = "SQLiteContentProvider";
     private static final long SLEEP_AFTER_YIELD_DELAY = 300L;
+    private static final String BATCH_SAVEPOINT = "adme_batch";
     /**
      * Maximum number of operations allowed in a batch between yield points.
      */
     private static final int MAX_OPERATIONS_PER_YIELD_POINT = 500;
-    private final ThreadLocal<Boolean> mApplyingBatch = new ThreadLocal<Boolean>();
+    /**
+     * Maximum time, in milliseconds, a batch in {@link ADMEBatchYieldMode#AUTO} mode runs without yielding.
+     */
+    private static final long MAX_MILLIS_PER_YIELD_POINT = 500L;
+    private final ThreadLocal<Integer> mBatchDepth = new ThreadLocal<Integer>();
     private final ThreadLocal<Boolean> mNotifyChange = new ThreadLocal<Boolean>();
     private final ThreadLocal<Set<Uri>> mNotifyUris = new ThreadLocal<Set<Uri>>();
     private SQLiteOpenHelper mOpenHelper;
+    private volatile boolean mTuningApplied;
+    private volatile ADMEMetricsListener mMetricsListener;
+    private volatile ADMESlowOperationLog mSlowOperationLog;
 
     /**
      * @return Number of operations that can be applied at once without a yield point.
@@ -43,6 +58,25 @@ public abstract class SQLiteContentProvider extends ContentProvider
         return MAX_OPERATIONS_PER_YIELD_POINT;
     }
 
+    /**
+     * @return Maximum time, in milliseconds, a batch in {@link ADMEBatchYieldMode#AUTO} mode runs
+     * without a yield point.
+     */
+    public long getMaxMillisPerYield() {
+        return MAX_MILLIS_PER_YIELD_POINT;
+    }
+
+    /**
+     * Choose how a batch yields its transaction, by default {@link ADMEBatchYieldMode#STRICT} unless
+     * the caller requested another mode with the {@link ADMEBatchYieldMode#QUERY_PARAMETER}.
+     *
+     * @param operations the operations of the batch
+     * @return the yield mode of the batch
+     */
+    protected ADMEBatchYieldMode getBatchYieldMode(ArrayList<ContentProviderOperation> operations) {
+        return ADMEBatchYieldMode.fromOperations(operations, ADMEBatchYieldMode.STRICT);
+    }
+
     @Override
     public boolean onCreate() {
         Context context = getContext();
@@ -79,17 +113,125 @@ public abstract class SQLiteContentProvider extends ContentProvider
         return mOpenHelper;
     }
 
+    /**
+     * Override to tune the database connection, the tuning is applied the first time the database
+     * is used by this provider.
+     *
+     * @return the tuning profile or null (default) to keep the database defaults
+     * @see ADMEDatabaseTuning
+     */
+    protected ADMEDatabaseTuning getDatabaseTuning() {
+        return null;
+    }
+
+    private SQLiteDatabase getWritableDatabase() {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        if (!mTuningApplied) {
+            synchronized (this) {
+                if (!mTuningApplied) {
+                    ADMEDatabaseTuning tuning = getDatabaseTuning();
+                    if (tuning != null) {
+                        tuning.apply(db);
+                    }
+                    mTuningApplied = true;
+                }
+            }
+        }
+        return db;
+    }
+
+    private SQLiteDatabase getReadableDatabase() {
+        if (!mTuningApplied) {
+            // the tuning is applied to the writable database, which is also the readable one
+            getWritableDatabase();
+        }
+        return mOpenHelper.getReadableDatabase();
+    }
+
+    /**
+     * @return <em>true</em> if queries can run concurrently with writes, by default when the
+     * {@link #getDatabaseTuning()} enable write ahead logging. Writes are then performed in
+     * IMMEDIATE transactions instead of EXCLUSIVE ones.
+     */
+    protected boolean isConcurrentReadsEnabled() {
+        ADMEDatabaseTuning tuning = getDatabaseTuning();
+        return tuning != null && tuning.getJournalMode() == ADMEDatabaseTuning.JournalMode.WAL;
+    }
+
+    private void beginWriteTransaction(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && isConcurrentReadsEnabled()) {
+            db.beginTransactionWithListenerNonExclusive(this);
+        } else {
+            db.beginTransactionWithListener(this);
+        }
+    }
+
+    /**
+     * Set a listener receiving the metrics of the operations of this provider.
+     *
+     * @param metricsListener the listener or null (default) to stop recording the metrics
+     * @see com.danielesegato.adme.diagnostics.ADMEHistogramMetrics
+     */
+    public void setMetricsListener(ADMEMetricsListener metricsListener) {
+        mMetricsListener = metricsListener;
+    }
+
+    /**
+     * The name of the component an Uri belongs to in the metrics, by default the first segment of
+     * its path. Override it if your Uris are organized differently, the number of distinct names
+     * should be small.
+     *
+     * @param uri the Uri of an operation
+     * @return the component name
+     */
+    protected String getMetricsComponent(Uri uri) {
+        final List<String> pathSegments = uri.getPathSegments();
+        return pathSegments.isEmpty() ? null : pathSegments.get(0);
+    }
+
+    private void recordOperation(ADMEMetricsListener metricsListener, Uri uri, ADMEMetricsListener.Operation operation, long start, int rows,
+                                 String selection, String[] selectionArgs) {
+        final long duration = System.nanoTime() - start;
+        if (metricsListener != null) {
+            metricsListener.onOperation(getMetricsComponent(uri), operation, duration, rows);
+        }
+        final ADMESlowOperationLog slowOperationLog = mSlowOperationLog;
+        if (slowOperationLog != null && slowOperationLog.isSlow(duration)) {
+            slowOperationLog.record(null, uri, operation, duration, rows, selection, selectionArgs, null, null);
+        }
+    }
+
+    /**
+     * Set a log recording the operations of this provider slower than its threshold, with the plan
+     * of the slow queries whose SQL is given by {@link #getQuerySql(Uri, String[], String, String)}.
+     *
+     * @param slowOperationLog the log or null (default) to stop recording the slow operations
+     */
+    public void setSlowOperationLog(ADMESlowOperationLog slowOperationLog) {
+        mSlowOperationLog = slowOperationLog;
+    }
+
     private boolean applyingBatch() {
-        return mApplyingBatch.get() != null && mApplyingBatch.get();
+        return getBatchDepth() > 0;
+    }
+
+    /**
+     * @return the number of batches being applied, one inside the other, on the calling thread
+     */
+    private int getBatchDepth() {
+        final Integer batchDepth = mBatchDepth.get();
+        return batchDepth != null ? batchDepth : 0;
     }
 
     @Override
     public Uri insert(Uri uri, ContentValues values) {
         Uri result = null;
         boolean applyingBatch = applyingBatch();
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final ADMEMetricsListener metricsListener = mMetricsListener;
+        final long start = System.nanoTime();
+        SQLiteDatabase db = getWritableDatabase();
         if (!applyingBatch) {
-            db.beginTransactionWithListener(this);
+            beginWriteTransaction(db);
             try {
                 result = insertInTransaction(db, uri, values);
                 if (result != null) {
@@ -99,6 +241,9 @@ public abstract class SQLiteContentProvider extends ContentProvider
             } finally {
                 db.endTransaction();
             }
+            if (metricsListener != null) {
+                metricsListener.onTransaction(System.nanoTime() - start, 0);
+            }
 
             onEndTransaction();
         } else {
@@ -107,14 +252,18 @@ public abstract class SQLiteContentProvider extends ContentProvider
                 mNotifyChange.set(true);
             }
         }
+        recordOperation(metricsListener, uri, ADMEMetricsListener.Operation.INSERT, start, result != null ? 1 : 0, null, null);
         return result;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         int numValues = values.length;
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        db.beginTransactionWithListener(this);
+        int ypCount = 0;
+        final ADMEMetricsListener metricsListener = mMetricsListener;
+        final long start = System.nanoTime();
+        SQLiteDatabase db = getWritableDatabase();
+        beginWriteTransaction(db);
         try {
             for (int i = 0; i < numValues; i++) {
                 Uri result = insertInTransaction(db, uri, values[i]);
@@ -122,15 +271,21 @@ public abstract class SQLiteContentProvider extends ContentProvider
                     mNotifyChange.set(true);
                 }
                 SQLiteDatabase savedDb = db;
-                db.yieldIfContendedSafely();
+                if (db.yieldIfContendedSafely()) {
+                    ypCount++;
+                }
                 db = savedDb;
             }
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
         }
+        if (metricsListener != null) {
+            metricsListener.onTransaction(System.nanoTime() - start, ypCount);
+        }
 
         onEndTransaction();
+        recordOperation(metricsListener, uri, ADMEMetricsListener.Operation.BULK_INSERT, start, numValues, null, null);
         return numValues;
     }
 
@@ -138,9 +293,11 @@ public abstract class SQLiteContentProvider extends ContentProvider
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         int count = 0;
         boolean applyingBatch = applyingBatch();
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final ADMEMetricsListener metricsListener = mMetricsListener;
+        final long start = System.nanoTime();
+        SQLiteDatabase db = getWritableDatabase();
         if (!applyingBatch) {
-            db.beginTransactionWithListener(this);
+            beginWriteTransaction(db);
             try {
                 count = updateInTransaction(db, uri, values, selection, selectionArgs);
                 if (count > 0) {
@@ -150,6 +307,9 @@ public abstract class SQLiteContentProvider extends ContentProvider
             } finally {
                 db.endTransaction();
             }
+            if (metricsListener != null) {
+                metricsListener.onTransaction(System.nanoTime() - start, 0);
+            }
 
             onEndTransaction();
         } else {
@@ -159,6 +319,7 @@ public abstract class SQLiteContentProvider extends ContentProvider
             }
         }
 
+        recordOperation(metricsListener, uri, ADMEMetricsListener.Operation.UPDATE, start, count, selection, selectionArgs);
         return count;
     }
 
@@ -166,9 +327,11 @@ public abstract class SQLiteContentProvider extends ContentProvider
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         int count = 0;
         boolean applyingBatch = applyingBatch();
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final ADMEMetricsListener metricsListener = mMetricsListener;
+        final long start = System.nanoTime();
+        SQLiteDatabase db = getWritableDatabase();
         if (!applyingBatch) {
-            db.beginTransactionWithListener(this);
+            beginWriteTransaction(db);
             try {
                 count = deleteInTransaction(db, uri, selection, selectionArgs);
                 if (count > 0) {
@@ -178,6 +341,9 @@ public abstract class SQLiteContentProvider extends ContentProvider
             } finally {
                 db.endTransaction();
             }
+            if (metricsListener != null) {
+                metricsListener.onTransaction(System.nanoTime() - start, 0);
+            }
 
             onEndTransaction();
         } else {
@@ -186,58 +352,206 @@ public abstract class SQLiteContentProvider extends ContentProvider
                 mNotifyChange.set(true);
             }
         }
+        recordOperation(metricsListener, uri, ADMEMetricsListener.Operation.DELETE, start, count, selection, selectionArgs);
         return count;
     }
 
     @Override
     public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
             throws OperationApplicationException {
+        final int batchDepth = getBatchDepth();
+        if (batchDepth > 0) {
+            return applyNestedBatch(operations, batchDepth);
+        }
         int ypCount = 0;
         int opCount = 0;
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        db.beginTransactionWithListener(this);
+        final ADMEBatchYieldMode yieldMode = getBatchYieldMode(operations);
+        final boolean isolateSubBatches = isSubBatchIsolationEnabled(operations);
+        long lastYieldTime = SystemClock.uptimeMillis();
+        final ADMEMetricsListener metricsListener = mMetricsListener;
+        final long start = metricsListener != null ? System.nanoTime() : 0L;
+        boolean success = false;
+        SQLiteDatabase db = getWritableDatabase();
+        beginWriteTransaction(db);
         try {
-            mApplyingBatch.set(true);
+            mBatchDepth.set(1);
             final int numOperations = operations.size();
             final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+            ADMESavepoint subBatchSavepoint = null;
+            int subBatchStart = 0;
+            boolean subBatchFailed = false;
             for (int i = 0; i < numOperations; i++) {
-                if (++opCount > getMaxOperationsPerYield()) {
+                if (++opCount > getMaxOperationsPerYield() && yieldMode == ADMEBatchYieldMode.STRICT) {
                     throw new OperationApplicationException(
                             "Too many content provider operations between yield points. "
                                     + "The maximum number of operations per yield point is "
                                     + MAX_OPERATIONS_PER_YIELD_POINT, ypCount);
                 }
                 final ContentProviderOperation operation = operations.get(i);
-                if (i > 0 && operation.isYieldAllowed()) {
+                boolean yieldPoint;
+                switch (yieldMode) {
+                    case AUTO:
+                        yieldPoint = operation.isYieldAllowed()
+                                || opCount > getMaxOperationsPerYield()
+                                || SystemClock.uptimeMillis() - lastYieldTime >= getMaxMillisPerYield();
+                        break;
+                    case ATOMIC:
+                        yieldPoint = false;
+                        break;
+                    default:
+                        yieldPoint = operation.isYieldAllowed();
+                        break;
+                }
+                if (i > 0 && yieldPoint) {
+                    if (subBatchSavepoint != null) {
+                        // the transaction can't be yielded with an open savepoint
+                        subBatchSavepoint.release();
+                        subBatchSavepoint = null;
+                    }
+                    subBatchFailed = false;
                     opCount = 0;
+                    lastYieldTime = SystemClock.uptimeMillis();
                     if (db.yieldIfContendedSafely(SLEEP_AFTER_YIELD_DELAY)) {
-                        db = mOpenHelper.getWritableDatabase();
+                        db = getWritableDatabase();
                         ypCount++;
                     }
                 }
 
-                results[i] = operation.apply(this, results, i);
+                if (!isolateSubBatches) {
+                    results[i] = operation.apply(this, results, i);
+                    continue;
+                }
+                if (subBatchFailed) {
+                    // the rest of a failed sub-batch is skipped
+                    continue;
+                }
+                if (subBatchSavepoint == null) {
+                    subBatchSavepoint = ADMESavepoint.begin(db, BATCH_SAVEPOINT);
+                    subBatchStart = i;
+                }
+                try {
+                    results[i] = operation.apply(this, results, i);
+                } catch (Exception e) {
+                    rollbackSubBatch(subBatchSavepoint, results, subBatchStart, i, e);
+                    subBatchSavepoint = null;
+                    subBatchFailed = true;
+                }
+            }
+            if (subBatchSavepoint != null) {
+                subBatchSavepoint.release();
             }
             db.setTransactionSuccessful();
+            success = true;
             return results;
         } finally {
-            mApplyingBatch.set(false);
+            mBatchDepth.set(0);
             db.endTransaction();
+            if (success && metricsListener != null) {
+                final long duration = System.nanoTime() - start;
+                metricsListener.onTransaction(duration, ypCount);
+                metricsListener.onOperation(null, ADMEMetricsListener.Operation.APPLY_BATCH, duration, operations.size());
+            }
             onEndTransaction();
         }
     }
 
+    /**
+     * A batch applied while applying another one runs in a savepoint: if it fails only its own
+     * changes are rolled back and the enclosing batch can go on.
+     */
+    private ContentProviderResult[] applyNestedBatch(ArrayList<ContentProviderOperation> operations, int batchDepth)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = getWritableDatabase();
+        final ADMESavepoint savepoint = ADMESavepoint.begin(db, BATCH_SAVEPOINT + batchDepth);
+        try {
+            mBatchDepth.set(batchDepth + 1);
+            final int numOperations = operations.size();
+            final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+            // a nested batch never yields, the enclosing transaction can't be committed here
+            for (int i = 0; i < numOperations; i++) {
+                results[i] = operations.get(i).apply(this, results, i);
+            }
+            savepoint.release();
+            return results;
+        } finally {
+            mBatchDepth.set(batchDepth);
+            if (savepoint.isOpen()) {
+                savepoint.rollback();
+            }
+        }
+    }
+
+    private static void rollbackSubBatch(ADMESavepoint savepoint, ContentProviderResult[] results, int start, int failed, Exception e) {
+        Log.w(TAG, String.format("Operation %d of the batch failed, rolling back the sub-batch starting at operation %d", failed, start), e);
+        savepoint.rollback();
+        Arrays.fill(results, start, failed + 1, null);
+    }
+
+    /**
+     * Whether every sub-batch of a batch, the operations between two yield points, is applied in
+     * its own savepoint: a failing sub-batch is rolled back alone, its results and the ones of its
+     * skipped operations are null, and the rest of the batch is committed.
+     * <p/>
+     * By default the isolation is enabled when the caller asks for it with the
+     * {@link ADMESavepoint#QUERY_PARAMETER} of the first operation Uri.
+     *
+     * @param operations the operations of the batch
+     * @return true to isolate the sub-batches
+     */
+    protected boolean isSubBatchIsolationEnabled(ArrayList<ContentProviderOperation> operations) {
+        return ADMESavepoint.isSubBatchIsolationRequested(operations);
+    }
+
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        return query(db, uri, projection, selection, selectionArgs, sortOrder);
+        SQLiteDatabase db = getReadableDatabase();
+        final long start = System.nanoTime();
+        Cursor cursor = query(db, uri, projection, selection, selectionArgs, sortOrder);
+        recordQuery(db, uri, projection, selection, selectionArgs, sortOrder, start, cursor);
+        return cursor;
     }
 
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        return query(db, uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+        SQLiteDatabase db = getReadableDatabase();
+        final long start = System.nanoTime();
+        Cursor cursor = query(db, uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+        recordQuery(db, uri, projection, selection, selectionArgs, sortOrder, start, cursor);
+        return cursor;
+    }
+
+    private void recordQuery(SQLiteDatabase db, Uri uri, String[] projection, String selection, String[] selectionArgs,
+                             String sortOrder, long start, Cursor cursor) {
+        final ADMEMetricsListener metricsListener = mMetricsListener;
+        final ADMESlowOperationLog slowOperationLog = mSlowOperationLog;
+        if (metricsListener != null || slowOperationLog != null) {
+            // the query is actually executed when the cursor window is filled
+            final int rows = cursor != null ? cursor.getCount() : 0;
+            final long duration = System.nanoTime() - start;
+            if (metricsListener != null) {
+                metricsListener.onOperation(getMetricsComponent(uri), ADMEMetricsListener.Operation.QUERY, duration, rows);
+            }
+            if (slowOperationLog != null && slowOperationLog.isSlow(duration)) {
+                slowOperationLog.record(db, uri, ADMEMetricsListener.Operation.QUERY, duration, rows, selection, selectionArgs, sortOrder,
+                        getQuerySql(uri, projection, selection, sortOrder));
+            }
+        }
+    }
+
+    /**
+     * Override to give the SQL executed by a query, the slow queries are then recorded with their
+     * plan in the {@link ADMESlowOperationLog}.
+     *
+     * @param uri        the Uri of the query
+     * @param projection the projection of the query
+     * @param selection  the selection of the query
+     * @param sortOrder  the sort order of the query
+     * @return the SQL of the query or null (default) if unknown
+     * @see com.danielesegato.adme.diagnostics.ADMEQueryPlanInspector#buildQuerySql(String, String[], String, String)
+     */
+    protected String getQuerySql(Uri uri, String[] projection, String selection, String sortOrder) {
+        return null;
     }
 
     /**
@@ -307,6 +621,10 @@ public abstract class SQLiteContentProvider extends ContentProvider
     protected void notifyChangeNowIfNeeded() {
         if (mNotifyChange.get() != null && mNotifyChange.get()) {
             mNotifyChange.set(false);
+            final ADMEMetricsListener metricsListener = mMetricsListener;
+            if (metricsListener != null) {
+                metricsListener.onNotification(getNotificationUris().size());
+            }
             notifyChange(getNotificationUris());
             getNotificationUris().clear();
         }
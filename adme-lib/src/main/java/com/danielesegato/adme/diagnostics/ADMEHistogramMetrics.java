@@ -0,0 +1,206 @@
+package com.danielesegato.adme.diagnostics;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An {@link ADMEMetricsListener} recording the metrics in histograms with exponential buckets,
+ * per component and operation. Recording only allocates memory the first time a component is seen.
+ * <p/>
+ * The durations are recorded in microseconds, the bucket <em>i</em> of a histogram counts the values
+ * lower than 2<sup>i</sup>: percentiles are approximated to the upper bound of their bucket.
+ * <pre>
+ * ADMEHistogramMetrics metrics = new ADMEHistogramMetrics();
+ * provider.setMetricsListener(metrics);
+ * ...
+ * metrics.dump(new PrintWriter(System.out));
+ * </pre>
+ */
+public class ADMEHistogramMetrics implements ADMEMetricsListener {
+    /**
+     * Key of the operations without a component ({@link Operation#APPLY_BATCH}).
+     */
+    public static final String NO_COMPONENT = "*";
+
+    private static final int BUCKETS = 40;
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    /**
+     * A histogram of values with exponential buckets.
+     */
+    public static final class Histogram {
+        private final long[] buckets = new long[BUCKETS];
+        private long count;
+        private long sum;
+        private long max;
+        private long rows;
+
+        private void record(long value, int rows) {
+            final int bucket = value <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+            buckets[bucket]++;
+            count++;
+            sum += value;
+            if (value > max) {
+                max = value;
+            }
+            this.rows += rows;
+        }
+
+        private void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = 0;
+            }
+            count = 0;
+            sum = 0;
+            max = 0;
+            rows = 0;
+        }
+
+        private void copyTo(Histogram histogram) {
+            System.arraycopy(buckets, 0, histogram.buckets, 0, BUCKETS);
+            histogram.count = count;
+            histogram.sum = sum;
+            histogram.max = max;
+            histogram.rows = rows;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @return the sum of the rows of the recorded operations, or of the yields of the
+         * recorded transactions
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * @param percentile the percentile, between 0 and 100
+         * @return the approximate value of the percentile (upper bound of its bucket)
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            final long threshold = (long) Math.ceil(count * percentile / 100d);
+            long cumulated = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulated += buckets[i];
+                if (cumulated >= Math.max(1, threshold)) {
+                    return Math.min(max, (1L << i) - 1);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.1f p50=%d p90=%d p99=%d max=%d rows=%d",
+                    count, getMean(), getPercentile(50), getPercentile(90), getPercentile(99), max, rows);
+        }
+    }
+
+    private final Map<String, Histogram[]> operations = new HashMap<String, Histogram[]>();
+    private final Histogram transactions = new Histogram();
+    private final Histogram notifications = new Histogram();
+
+    @Override
+    public synchronized void onOperation(String component, Operation operation, long durationNanos, int rows) {
+        final String key = component != null ? component : NO_COMPONENT;
+        Histogram[] histograms = operations.get(key);
+        if (histograms == null) {
+            histograms = new Histogram[OPERATIONS.length];
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new Histogram();
+            }
+            operations.put(key, histograms);
+        }
+        histograms[operation.ordinal()].record(durationNanos / 1000L, rows);
+    }
+
+    @Override
+    public synchronized void onTransaction(long durationNanos, int yields) {
+        transactions.record(durationNanos / 1000L, yields);
+    }
+
+    @Override
+    public synchronized void onNotification(int uris) {
+        notifications.record(uris, uris);
+    }
+
+    /**
+     * @param component the component or {@link #NO_COMPONENT}
+     * @param operation the operation
+     * @return a snapshot of the durations, in microseconds, of the operation on the component
+     */
+    public synchronized Histogram getOperationHistogram(String component, Operation operation) {
+        final Histogram snapshot = new Histogram();
+        final Histogram[] histograms = operations.get(component);
+        if (histograms != null) {
+            histograms[operation.ordinal()].copyTo(snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return a snapshot of the durations, in microseconds, of the transactions, the rows are the yields
+     */
+    public synchronized Histogram getTransactionHistogram() {
+        final Histogram snapshot = new Histogram();
+        transactions.copyTo(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * @return a snapshot of the number of Uris notified after each transaction
+     */
+    public synchronized Histogram getNotificationHistogram() {
+        final Histogram snapshot = new Histogram();
+        notifications.copyTo(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Clear all the recorded metrics.
+     */
+    public synchronized void reset() {
+        for (Histogram[] histograms : operations.values()) {
+            for (Histogram histogram : histograms) {
+                histogram.reset();
+            }
+        }
+        transactions.reset();
+        notifications.reset();
+    }
+
+    /**
+     * Print the recorded metrics, ex. from {@link android.content.ContentProvider#dump}.
+     *
+     * @param writer the writer to print to
+     */
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("Operations (durations in us):");
+        for (Map.Entry<String, Histogram[]> entry : operations.entrySet()) {
+            for (Operation operation : OPERATIONS) {
+                final Histogram histogram = entry.getValue()[operation.ordinal()];
+                if (histogram.count > 0) {
+                    writer.println(String.format("  %s %s: %s", entry.getKey(), operation, histogram));
+                }
+            }
+        }
+        writer.println(String.format("Transactions (durations in us, rows are yields): %s", transactions));
+        writer.println(String.format("Notifications (notified uris): %s", notifications));
+        writer.flush();
+    }
+}
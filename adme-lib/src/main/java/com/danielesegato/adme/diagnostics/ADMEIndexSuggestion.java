@@ -0,0 +1,67 @@
+package com.danielesegato.adme.diagnostics;
+
+import com.danielesegato.adme.annotation.ADMEIndexConstraint;
+import com.danielesegato.adme.config.ADMEEntityConfig;
+import com.danielesegato.adme.config.ADMEFieldConfig;
+
+import java.util.List;
+
+/**
+ * An index suggested by the {@link ADMEQueryPlanInspector} for a query scanning a table or sorting
+ * its result with a temporary B-Tree.
+ */
+public class ADMEIndexSuggestion {
+    private final ADMEEntityConfig<?> entityConfig;
+    private final List<ADMEFieldConfig> fields;
+
+    ADMEIndexSuggestion(ADMEEntityConfig<?> entityConfig, List<ADMEFieldConfig> fields) {
+        this.entityConfig = entityConfig;
+        this.fields = fields;
+    }
+
+    /**
+     * @return the entity the index should be declared on
+     */
+    public ADMEEntityConfig<?> getEntityConfig() {
+        return entityConfig;
+    }
+
+    /**
+     * @return the fields of the index, in index order: equality constraints first, then at most one
+     * range constraint followed by the ORDER BY columns
+     */
+    public List<ADMEFieldConfig> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return the {@link ADMEIndexConstraint} declaration to add, on the field for single column
+     * indexes, on the {@link com.danielesegato.adme.annotation.ADMEEntity} otherwise
+     */
+    public String toAnnotation() {
+        final StringBuilder sb = new StringBuilder();
+        if (fields.size() == 1) {
+            sb.append('@').append(ADMEIndexConstraint.class.getSimpleName()).append("(index = true)");
+            sb.append(" on field ").append(entityConfig.getJavaClass().getSimpleName());
+            sb.append('.').append(fields.get(0).getJavaField().getName());
+            return sb.toString();
+        }
+        sb.append('@').append(ADMEIndexConstraint.class.getSimpleName()).append("(index = true, columns = {");
+        boolean first = true;
+        for (ADMEFieldConfig fieldConfig : fields) {
+            if (first) {
+                first = false;
+            } else {
+                sb.append(", ");
+            }
+            sb.append('"').append(fieldConfig.getColumnName()).append('"');
+        }
+        sb.append("}) on entity ").append(entityConfig.getJavaClass().getSimpleName());
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return toAnnotation();
+    }
+}
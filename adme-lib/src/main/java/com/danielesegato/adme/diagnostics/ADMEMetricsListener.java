@@ -0,0 +1,48 @@
+package com.danielesegato.adme.diagnostics;
+
+/**
+ * Receive the metrics of the operations performed by a content provider, see
+ * {@link com.danielesegato.adme.provider.ADMEContentProvider#setMetricsListener(ADMEMetricsListener)}
+ * and {@link com.danielesegato.adme.db.SQLiteContentProvider#setMetricsListener(ADMEMetricsListener)}.
+ * <p/>
+ * The methods are called synchronously on the thread performing the operation, from many threads
+ * concurrently: implementations must be thread safe and fast, they should not allocate memory.
+ * {@link ADMEHistogramMetrics} is a ready to use implementation.
+ */
+public interface ADMEMetricsListener {
+
+    /**
+     * The content provider operations.
+     */
+    enum Operation {
+        QUERY, INSERT, UPDATE, DELETE, BULK_INSERT, APPLY_BATCH
+    }
+
+    /**
+     * An operation has been performed.
+     *
+     * @param component     the component performing the operation, the base Uri path for the
+     *                      {@link com.danielesegato.adme.provider.ADMEContentProvider}, null for
+     *                      {@link Operation#APPLY_BATCH} which can span many components
+     * @param operation     the operation
+     * @param durationNanos the duration of the operation, waiting for the database lock included
+     * @param rows          the rows returned (query), inserted, updated or deleted, or the number
+     *                      of operations of a batch
+     */
+    void onOperation(String component, Operation operation, long durationNanos, int rows);
+
+    /**
+     * A write transaction has been committed.
+     *
+     * @param durationNanos the duration of the transaction, from its beginning to its end
+     * @param yields        the number of times the transaction has been yielded to other threads
+     */
+    void onTransaction(long durationNanos, int yields);
+
+    /**
+     * The changes of a transaction have been notified.
+     *
+     * @param uris the number of notified Uris
+     */
+    void onNotification(int uris);
+}
@@ -0,0 +1,104 @@
+package com.danielesegato.adme.diagnostics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of an <code>EXPLAIN QUERY PLAN</code> executed by the {@link ADMEQueryPlanInspector}.
+ */
+public class ADMEQueryPlan {
+    private final String name;
+    private final String sql;
+    private final List<String> details = new ArrayList<String>();
+    private final List<String> fullScanTables = new ArrayList<String>();
+    private final List<ADMEIndexSuggestion> indexSuggestions = new ArrayList<ADMEIndexSuggestion>();
+    private boolean tempBTree;
+
+    ADMEQueryPlan(String name, String sql) {
+        this.name = name;
+        this.sql = sql;
+    }
+
+    /**
+     * @return the name the query has been registered with or the Uri it has been captured from
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the SQL of the query
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return the detail column of every row of the query plan
+     */
+    public List<String> getDetails() {
+        return Collections.unmodifiableList(details);
+    }
+
+    /**
+     * @return the tables fully scanned without using an index
+     */
+    public List<String> getFullScanTables() {
+        return Collections.unmodifiableList(fullScanTables);
+    }
+
+    /**
+     * @return <em>true</em> if SQLite build a temporary B-Tree to sort the result (ORDER BY, GROUP BY
+     * or DISTINCT not served by an index)
+     */
+    public boolean usesTempBTree() {
+        return tempBTree;
+    }
+
+    /**
+     * @return <em>true</em> if the plan contains a full table scan or a temporary B-Tree
+     */
+    public boolean hasIssues() {
+        return tempBTree || !fullScanTables.isEmpty();
+    }
+
+    /**
+     * @return the indexes that could avoid the issues of this plan
+     */
+    public List<ADMEIndexSuggestion> getIndexSuggestions() {
+        return Collections.unmodifiableList(indexSuggestions);
+    }
+
+    void addDetail(String detail) {
+        details.add(detail);
+    }
+
+    void addFullScanTable(String table) {
+        if (!fullScanTables.contains(table)) {
+            fullScanTables.add(table);
+        }
+    }
+
+    void setTempBTree(boolean tempBTree) {
+        this.tempBTree = tempBTree;
+    }
+
+    void addIndexSuggestion(ADMEIndexSuggestion suggestion) {
+        indexSuggestions.add(suggestion);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(hasIssues() ? "[ISSUES] " : "[OK] ").append(name).append('\n');
+        sb.append("  ").append(sql).append('\n');
+        for (String detail : details) {
+            sb.append("    ").append(detail).append('\n');
+        }
+        for (ADMEIndexSuggestion suggestion : indexSuggestions) {
+            sb.append("  suggestion: ").append(suggestion.toAnnotation()).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,325 @@
+package com.danielesegato.adme.diagnostics;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.danielesegato.adme.InternalADMEConsts;
+import com.danielesegato.adme.config.ADMEConfigUtils;
+import com.danielesegato.adme.config.ADMEEntityConfig;
+import com.danielesegato.adme.config.ADMEFieldConfig;
+import com.danielesegato.adme.config.ADMEIndexConstraintConfig;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Run <code>EXPLAIN QUERY PLAN</code> on a set of queries, flag full table scans and temporary
+ * B-Trees used for sorting and suggest the {@link com.danielesegato.adme.annotation.ADMEIndexConstraint}
+ * declarations that could avoid them.
+ * <p/>
+ * Queries can be registered manually with {@link #registerQuery(String, String, String[])} or
+ * captured from an {@link com.danielesegato.adme.provider.ADMEContentProvider} with
+ * {@link com.danielesegato.adme.provider.ADMEContentProvider#setQueryPlanInspector(ADMEQueryPlanInspector)},
+ * in which case the components must provide the SQL they run by overriding
+ * {@link com.danielesegato.adme.provider.ADMEContentProviderComponent#getQuerySql(Uri, String[], String, String)}.
+ * <p/>
+ * Index suggestions are only given for the entities registered with {@link #registerEntity(Class)}.
+ * They are based on the columns found in the WHERE and ORDER BY clauses of the query, so they are a
+ * hint for the developer, not something to apply blindly.
+ * <p/>
+ * Usage, in a debug build:
+ * <pre>
+ * ADMEQueryPlanInspector inspector = new ADMEQueryPlanInspector();
+ * inspector.registerEntity(Order.class);
+ * inspector.registerQuery("orders by customer", "SELECT * FROM 'Order' WHERE customer_id = ? ORDER BY date", new String[]{"1"});
+ * for (ADMEQueryPlan plan : inspector.inspect(db)) {
+ *     Log.d(TAG, plan.toString());
+ * }
+ * </pre>
+ * This class is thread safe.
+ */
+public class ADMEQueryPlanInspector {
+    private static final String LOGTAG = InternalADMEConsts.LOGTAG;
+    private static final int DEFAULT_MAX_CAPTURED_QUERIES = 100;
+    private static final Pattern SCAN_PATTERN = Pattern.compile("^SCAN (?:TABLE )?(\\S+)(?: AS (\\S+))?(.*)$");
+    private static final Pattern WHERE_PATTERN = Pattern.compile("\\bWHERE\\b(.*?)(?:\\bGROUP\\s+BY\\b|\\bORDER\\s+BY\\b|\\bLIMIT\\b|$)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern ORDER_BY_PATTERN = Pattern.compile("\\bORDER\\s+BY\\b(.*?)(?:\\bLIMIT\\b|$)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final String QUOTES = "['\"`\\[\\]]";
+    private static final String EQUALITY_OPERATORS = "(?:==|=|IS\\s+(?!NOT\\b)|IN\\s*\\()";
+    private static final String RANGE_OPERATORS = "(?:<=|>=|<|>|BETWEEN\\b|LIKE\\b|GLOB\\b)";
+
+    private final Map<String, ADMEEntityConfig<?>> entityConfigMap = new HashMap<String, ADMEEntityConfig<?>>();
+    private final Map<String, InspectedQuery> registeredQueries = new LinkedHashMap<String, InspectedQuery>();
+    private final LinkedHashMap<String, InspectedQuery> capturedQueries;
+
+    public ADMEQueryPlanInspector() {
+        this(DEFAULT_MAX_CAPTURED_QUERIES);
+    }
+
+    /**
+     * @param maxCapturedQueries maximum number of distinct captured queries to keep, the least
+     *                           recently captured are discarded first
+     */
+    public ADMEQueryPlanInspector(final int maxCapturedQueries) {
+        this.capturedQueries = new LinkedHashMap<String, InspectedQuery>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, InspectedQuery> eldest) {
+                return size() > maxCapturedQueries;
+            }
+        };
+    }
+
+    /**
+     * Build the SQL of a simple query on a table, as executed by
+     * {@link SQLiteDatabase#query(String, String[], String, String[], String, String, String)}.
+     * Useful to implement {@link com.danielesegato.adme.provider.ADMEContentProviderComponent#getQuerySql(Uri, String[], String, String)}.
+     *
+     * @param table      the table name
+     * @param projection the columns or null for all the columns
+     * @param selection  the WHERE clause or null
+     * @param sortOrder  the ORDER BY clause or null
+     * @return the SQL of the query
+     */
+    public static String buildQuerySql(@NonNull String table, @Nullable String[] projection, @Nullable String selection, @Nullable String sortOrder) {
+        return SQLiteQueryBuilder.buildQueryString(false, table, projection, selection, null, null, sortOrder, null);
+    }
+
+    /**
+     * Register an entity to receive index suggestions for queries on its table.
+     *
+     * @param entityClass the {@link com.danielesegato.adme.annotation.ADMEEntity} annotated class
+     */
+    public synchronized void registerEntity(@NonNull Class<?> entityClass) {
+        final ADMEEntityConfig<?> entityConfig = ADMEConfigUtils.lookupADMEEntityConfig(entityClass);
+        entityConfigMap.put(entityConfig.getEntityName().toLowerCase(Locale.US), entityConfig);
+    }
+
+    /**
+     * Register a query to inspect.
+     *
+     * @param name          a name to recognize the query in the report, ex. the screen using it
+     * @param sql           the SQL of the query
+     * @param selectionArgs the arguments of the query or null, they are used to make the plan
+     *                      realistic (ex. partial indexes)
+     */
+    public synchronized void registerQuery(@NonNull String name, @NonNull String sql, @Nullable String[] selectionArgs) {
+        registeredQueries.put(name, new InspectedQuery(name, sql, selectionArgs));
+    }
+
+    /**
+     * Capture a query executed by the application. Queries with the same SQL are only kept once,
+     * with the last arguments.
+     *
+     * @param uri           the Uri the query has been executed for
+     * @param sql           the SQL of the query
+     * @param selectionArgs the arguments of the query or null
+     */
+    public synchronized void captureQuery(@NonNull Uri uri, @NonNull String sql, @Nullable String[] selectionArgs) {
+        capturedQueries.put(sql, new InspectedQuery(uri.toString(), sql, selectionArgs));
+    }
+
+    /**
+     * Forget all the captured queries.
+     */
+    public synchronized void clearCapturedQueries() {
+        capturedQueries.clear();
+    }
+
+    /**
+     * Explain all the registered and captured queries, logging a warning for the ones with issues.
+     *
+     * @param db the database to run the queries on, it should contain realistic data and
+     *           statistics (ANALYZE) for the plans to match the real ones
+     * @return the plan of every query
+     */
+    public List<ADMEQueryPlan> inspect(@NonNull SQLiteDatabase db) {
+        final List<InspectedQuery> queries;
+        synchronized (this) {
+            queries = new ArrayList<InspectedQuery>(registeredQueries.size() + capturedQueries.size());
+            queries.addAll(registeredQueries.values());
+            queries.addAll(capturedQueries.values());
+        }
+        final List<ADMEQueryPlan> plans = new ArrayList<ADMEQueryPlan>(queries.size());
+        for (InspectedQuery query : queries) {
+            final ADMEQueryPlan plan = explain(db, query.name, query.sql, query.selectionArgs);
+            if (plan.hasIssues()) {
+                Log.w(LOGTAG, String.format("Query plan issues found: %s", plan));
+            }
+            plans.add(plan);
+        }
+        return plans;
+    }
+
+    /**
+     * Explain a single query.
+     *
+     * @param db            the database
+     * @param name          a name for the query in the report
+     * @param sql           the SQL of the query
+     * @param selectionArgs the arguments of the query or null
+     * @return the plan of the query
+     */
+    public ADMEQueryPlan explain(@NonNull SQLiteDatabase db, @NonNull String name, @NonNull String sql, @Nullable String[] selectionArgs) {
+        // http://www.sqlite.org/eqp.html
+        final ADMEQueryPlan plan = new ADMEQueryPlan(name, sql);
+        final Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            final int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                final String detail = cursor.getString(detailIndex);
+                plan.addDetail(detail);
+                analyzeDetail(plan, sql, detail);
+            }
+        } finally {
+            cursor.close();
+        }
+        suggestIndexes(plan, sql);
+        return plan;
+    }
+
+    private void analyzeDetail(ADMEQueryPlan plan, String sql, String detail) {
+        if (detail.startsWith("USE TEMP B-TREE")) {
+            plan.setTempBTree(true);
+            return;
+        }
+        final Matcher matcher = SCAN_PATTERN.matcher(detail);
+        if (!matcher.matches() || matcher.group(3).contains("USING") || matcher.group(3).contains("VIRTUAL TABLE")) {
+            return;
+        }
+        final String name = unquote(matcher.group(1));
+        if ("SUBQUERY".equals(name) || "CONSTANT".equals(name)) {
+            return;
+        }
+        final String table = resolveTable(sql, name);
+        plan.addFullScanTable(table != null ? table : name);
+    }
+
+    /**
+     * Newer SQLite versions report the alias of the table in the query plan instead of its name.
+     */
+    private synchronized String resolveTable(String sql, String nameOrAlias) {
+        final ADMEEntityConfig<?> entityConfig = entityConfigMap.get(nameOrAlias.toLowerCase(Locale.US));
+        if (entityConfig != null) {
+            return entityConfig.getEntityName();
+        }
+        final Matcher matcher = Pattern.compile(QUOTES + "?(\\w+)" + QUOTES + "?\\s+(?:AS\\s+)?" + QUOTES + "?" + Pattern.quote(nameOrAlias) + QUOTES + "?(?![\\w.])",
+                Pattern.CASE_INSENSITIVE).matcher(sql);
+        while (matcher.find()) {
+            final ADMEEntityConfig<?> aliasedEntityConfig = entityConfigMap.get(matcher.group(1).toLowerCase(Locale.US));
+            if (aliasedEntityConfig != null) {
+                return aliasedEntityConfig.getEntityName();
+            }
+        }
+        return null;
+    }
+
+    private synchronized void suggestIndexes(ADMEQueryPlan plan, String sql) {
+        final List<ADMEEntityConfig<?>> candidates = new ArrayList<ADMEEntityConfig<?>>();
+        for (String table : plan.getFullScanTables()) {
+            final ADMEEntityConfig<?> entityConfig = entityConfigMap.get(table.toLowerCase(Locale.US));
+            if (entityConfig != null) {
+                candidates.add(entityConfig);
+            }
+        }
+        if (plan.usesTempBTree() && candidates.isEmpty()) {
+            for (ADMEEntityConfig<?> entityConfig : entityConfigMap.values()) {
+                if (Pattern.compile("\\b(?:FROM|JOIN)\\s+" + QUOTES + "?" + Pattern.quote(entityConfig.getEntityName()) + QUOTES + "?(?!\\w)",
+                        Pattern.CASE_INSENSITIVE).matcher(sql).find()) {
+                    candidates.add(entityConfig);
+                }
+            }
+        }
+        final Matcher whereMatcher = WHERE_PATTERN.matcher(sql);
+        final String where = whereMatcher.find() ? whereMatcher.group(1) : "";
+        final Matcher orderByMatcher = ORDER_BY_PATTERN.matcher(sql);
+        final String orderBy = plan.usesTempBTree() && orderByMatcher.find() ? orderByMatcher.group(1) : "";
+        for (ADMEEntityConfig<?> entityConfig : candidates) {
+            final List<ADMEFieldConfig> fields = new ArrayList<ADMEFieldConfig>();
+            ADMEFieldConfig rangeField = null;
+            for (ADMEFieldConfig fieldConfig : entityConfig.getFieldsConfig()) {
+                if (isConstrained(where, fieldConfig, EQUALITY_OPERATORS)) {
+                    fields.add(fieldConfig);
+                } else if (rangeField == null && isConstrained(where, fieldConfig, RANGE_OPERATORS)) {
+                    rangeField = fieldConfig;
+                }
+            }
+            if (rangeField != null) {
+                fields.add(rangeField);
+            }
+            for (String term : orderBy.split(",")) {
+                final ADMEFieldConfig fieldConfig = findOrderByField(entityConfig, term);
+                if (fieldConfig != null && !fields.contains(fieldConfig)) {
+                    fields.add(fieldConfig);
+                }
+            }
+            if (fields.isEmpty() || fields.get(0).isId() || isAlreadyIndexed(entityConfig, fields)) {
+                continue;
+            }
+            plan.addIndexSuggestion(new ADMEIndexSuggestion(entityConfig, fields));
+        }
+    }
+
+    private static boolean isConstrained(String where, ADMEFieldConfig fieldConfig, String operators) {
+        return Pattern.compile("(?<![\\w])" + QUOTES + "?" + Pattern.quote(fieldConfig.getColumnName()) + QUOTES + "?\\s*" + operators,
+                Pattern.CASE_INSENSITIVE).matcher(where).find();
+    }
+
+    private static ADMEFieldConfig findOrderByField(ADMEEntityConfig<?> entityConfig, String term) {
+        String column = term.trim().split("\\s+")[0];
+        final int dot = column.lastIndexOf('.');
+        if (dot >= 0) {
+            column = column.substring(dot + 1);
+        }
+        column = unquote(column);
+        for (ADMEFieldConfig fieldConfig : entityConfig.getFieldsConfig()) {
+            if (fieldConfig.getColumnName().equalsIgnoreCase(column)) {
+                return fieldConfig;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isAlreadyIndexed(ADMEEntityConfig<?> entityConfig, List<ADMEFieldConfig> fields) {
+        for (ADMEIndexConstraintConfig indexConstraintConfig : entityConfig.getIndexConstraintConfigList()) {
+            final ADMEFieldConfig[] indexFields = indexConstraintConfig.getFields();
+            if (indexConstraintConfig.isPartial() || indexFields.length < fields.size()) {
+                continue;
+            }
+            boolean prefix = true;
+            for (int i = 0; i < fields.size() && prefix; i++) {
+                prefix = indexFields[i] == fields.get(i);
+            }
+            if (prefix) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String unquote(String name) {
+        return name.replaceAll("^" + QUOTES + "|" + QUOTES + "$", "");
+    }
+
+    private static class InspectedQuery {
+        final String name;
+        final String sql;
+        final String[] selectionArgs;
+
+        InspectedQuery(String name, String sql, String[] selectionArgs) {
+            this.name = name;
+            this.sql = sql;
+            this.selectionArgs = selectionArgs;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.danielesegato.adme.diagnostics;
+
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.danielesegato.adme.InternalADMEConsts;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keep track of the content provider operations slower than a threshold, in a bounded ring buffer:
+ * when it is full the oldest entries are discarded.
+ * <p/>
+ * Every entry records the Uri, selection, sort order and row count of the operation. For the
+ * queries of the components overriding
+ * {@link com.danielesegato.adme.provider.ADMEContentProviderComponent#getQuerySql(Uri, String[], String, String)}
+ * the <code>EXPLAIN QUERY PLAN</code> output is captured too, right after the slow query, so that
+ * it reflects the data set of the user.
+ * <pre>
+ * ADMESlowOperationLog slowOperationLog = new ADMESlowOperationLog(100);
+ * provider.setSlowOperationLog(slowOperationLog);
+ * ...
+ * slowOperationLog.dump(new PrintWriter(System.out));
+ * </pre>
+ * This class is thread safe.
+ */
+public class ADMESlowOperationLog {
+    private static final String LOGTAG = InternalADMEConsts.LOGTAG;
+    /**
+     * Default number of entries kept.
+     */
+    public static final int DEFAULT_CAPACITY = 50;
+
+    /**
+     * A slow operation.
+     */
+    public static final class Entry {
+        private final long timeMillis;
+        private final Uri uri;
+        private final ADMEMetricsListener.Operation operation;
+        private final long durationNanos;
+        private final int rows;
+        private final String selection;
+        private final String[] selectionArgs;
+        private final String sortOrder;
+        private final ADMEQueryPlan queryPlan;
+
+        Entry(long timeMillis, Uri uri, ADMEMetricsListener.Operation operation, long durationNanos, int rows,
+              String selection, String[] selectionArgs, String sortOrder, ADMEQueryPlan queryPlan) {
+            this.timeMillis = timeMillis;
+            this.uri = uri;
+            this.operation = operation;
+            this.durationNanos = durationNanos;
+            this.rows = rows;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.sortOrder = sortOrder;
+            this.queryPlan = queryPlan;
+        }
+
+        /**
+         * @return when the operation completed, as {@link System#currentTimeMillis()}
+         */
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        public Uri getUri() {
+            return uri;
+        }
+
+        public ADMEMetricsListener.Operation getOperation() {
+            return operation;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        public String getSelection() {
+            return selection;
+        }
+
+        public String[] getSelectionArgs() {
+            return selectionArgs;
+        }
+
+        public String getSortOrder() {
+            return sortOrder;
+        }
+
+        /**
+         * @return the plan of the query or null if the operation is not a query or its SQL is not
+         * known
+         */
+        public ADMEQueryPlan getQueryPlan() {
+            return queryPlan;
+        }
+
+        @Override
+        public String toString() {
+            return toString(true);
+        }
+
+        /**
+         * @param includeSelectionArgs false to leave out the selection arguments, they can hold
+         *                             user data
+         */
+        private String toString(boolean includeSelectionArgs) {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%s %s %d ms, %d rows", operation, uri, durationNanos / 1000000L, rows));
+            if (selection != null) {
+                sb.append(", selection: ").append(selection);
+                if (includeSelectionArgs && selectionArgs != null) {
+                    sb.append(' ').append(Arrays.toString(selectionArgs));
+                }
+            }
+            if (sortOrder != null) {
+                sb.append(", sort: ").append(sortOrder);
+            }
+            if (queryPlan != null) {
+                sb.append(", plan: ").append(queryPlan.getDetails());
+            }
+            return sb.toString();
+        }
+    }
+
+    private final long thresholdNanos;
+    private final Entry[] entries;
+    private final ADMEQueryPlanInspector queryPlanInspector = new ADMEQueryPlanInspector(0);
+    private int next = 0;
+    private int size = 0;
+
+    /**
+     * @param thresholdMillis operations lasting this many milliseconds or more are logged
+     */
+    public ADMESlowOperationLog(long thresholdMillis) {
+        this(thresholdMillis, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param thresholdMillis operations lasting this many milliseconds or more are logged
+     * @param capacity        maximum number of entries kept
+     */
+    public ADMESlowOperationLog(long thresholdMillis, int capacity) {
+        if (thresholdMillis < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid slow operation threshold %d ms, it can't be negative", thresholdMillis));
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid slow operation log capacity %d, it must be positive", capacity));
+        }
+        this.thresholdNanos = thresholdMillis * 1000000L;
+        this.entries = new Entry[capacity];
+    }
+
+    public long getThresholdMillis() {
+        return thresholdNanos / 1000000L;
+    }
+
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    /**
+     * @param durationNanos the duration of an operation
+     * @return true if the operation should be recorded
+     */
+    public boolean isSlow(long durationNanos) {
+        return durationNanos >= thresholdNanos;
+    }
+
+    /**
+     * Record a slow operation, explaining its query if the SQL is given.
+     *
+     * @param db            the database the operation has been executed on, used to explain the query,
+     *                      or null
+     * @param uri           the Uri of the operation
+     * @param operation     the operation
+     * @param durationNanos the duration of the operation
+     * @param rows          the rows returned or modified by the operation
+     * @param selection     the selection or null
+     * @param selectionArgs the selection arguments or null
+     * @param sortOrder     the sort order or null
+     * @param querySql      the SQL of the query or null if not known or not a query
+     */
+    public void record(@Nullable SQLiteDatabase db, @NonNull Uri uri, @NonNull ADMEMetricsListener.Operation operation,
+                       long durationNanos, int rows, @Nullable String selection, @Nullable String[] selectionArgs,
+                       @Nullable String sortOrder, @Nullable String querySql) {
+        ADMEQueryPlan queryPlan = null;
+        if (db != null && querySql != null) {
+            try {
+                queryPlan = queryPlanInspector.explain(db, uri.toString(), querySql, selectionArgs);
+            } catch (SQLException e) {
+                Log.w(LOGTAG, String.format("Couldn't explain slow query %s", querySql), e);
+            }
+        }
+        final Entry entry = new Entry(System.currentTimeMillis(), uri, operation, durationNanos, rows,
+                selection, selectionArgs, sortOrder, queryPlan);
+        // the selection arguments are user data, they are only kept in memory for dump()
+        Log.w(LOGTAG, String.format("Slow operation: %s", entry.toString(false)));
+        synchronized (this) {
+            entries[next] = entry;
+            next = (next + 1) % entries.length;
+            if (size < entries.length) {
+                size++;
+            }
+        }
+    }
+
+    /**
+     * @return the recorded entries, oldest first
+     */
+    public synchronized List<Entry> getEntries() {
+        final List<Entry> result = new ArrayList<Entry>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(entries[(next - size + i + entries.length) % entries.length]);
+        }
+        return result;
+    }
+
+    /**
+     * Discard all the recorded entries.
+     */
+    public synchronized void clear() {
+        Arrays.fill(entries, null);
+        next = 0;
+        size = 0;
+    }
+
+    /**
+     * Print the recorded entries, ex. from {@link android.content.ContentProvider#dump}.
+     *
+     * @param writer the writer to print to
+     */
+    public void dump(PrintWriter writer) {
+        final List<Entry> entries = getEntries();
+        writer.println(String.format("Slow operations (>= %d ms): %d", getThresholdMillis(), entries.size()));
+        for (Entry entry : entries) {
+            writer.println(String.format("  %tF %<tT %s", entry.getTimeMillis(), entry));
+        }
+        writer.flush();
+    }
+}
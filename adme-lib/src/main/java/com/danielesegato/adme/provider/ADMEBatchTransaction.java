@@ -0,0 +1,152 @@
+package com.danielesegato.adme.provider;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.danielesegato.adme.db.ADMESavepoint;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The transactions of a batch applied by the {@link ADMEContentProvider}: one for every database
+ * the operations of the batch use, begun the first time the batch uses the database.
+ * <p/>
+ * Savepoints are opened on all the databases of the batch, a database joining the batch gets the
+ * savepoints currently open. The databases are committed one after the other at the end of the
+ * batch, the batch is not atomic across databases: if a commit fails the databases already
+ * committed are not rolled back.
+ * <p/>
+ * Only used by the thread applying the batch.
+ */
+class ADMEBatchTransaction {
+    interface Host {
+        /**
+         * @param databaseKey the key of the database
+         * @return the database, with a write transaction begun
+         */
+        SQLiteDatabase beginTransaction(String databaseKey);
+    }
+
+    private final Host host;
+    // the default database has the null key
+    private final Map<String, SQLiteDatabase> databases = new LinkedHashMap<String, SQLiteDatabase>();
+    private final List<String> savepointNames = new ArrayList<String>();
+    private final List<List<ADMESavepoint>> savepoints = new ArrayList<List<ADMESavepoint>>();
+    private int depth = 1;
+
+    ADMEBatchTransaction(Host host) {
+        this.host = host;
+    }
+
+    /**
+     * @return the number of batches being applied, one inside the other, in this transaction
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    /**
+     * @param databaseKey the key of a database
+     * @return the database, joining the batch transaction if it is not already part of it
+     */
+    SQLiteDatabase getDatabase(String databaseKey) {
+        SQLiteDatabase db = databases.get(databaseKey);
+        if (db == null) {
+            db = host.beginTransaction(databaseKey);
+            databases.put(databaseKey, db);
+            for (int i = 0; i < savepointNames.size(); i++) {
+                savepoints.get(i).add(ADMESavepoint.begin(db, savepointNames.get(i)));
+            }
+        }
+        return db;
+    }
+
+    /**
+     * @param databaseKey the key of a database
+     * @return the database or null if it is not part of the batch transaction
+     */
+    SQLiteDatabase getJoinedDatabase(String databaseKey) {
+        return databases.get(databaseKey);
+    }
+
+    void beginSavepoint(String name) {
+        final List<ADMESavepoint> levelSavepoints = new ArrayList<ADMESavepoint>(databases.size());
+        for (SQLiteDatabase db : databases.values()) {
+            levelSavepoints.add(ADMESavepoint.begin(db, name));
+        }
+        savepointNames.add(name);
+        savepoints.add(levelSavepoints);
+    }
+
+    /**
+     * Release the last savepoint opened.
+     */
+    void releaseSavepoint() {
+        for (ADMESavepoint savepoint : popSavepoints()) {
+            savepoint.release();
+        }
+    }
+
+    /**
+     * Roll back the last savepoint opened.
+     */
+    void rollbackSavepoint() {
+        for (ADMESavepoint savepoint : popSavepoints()) {
+            savepoint.rollback();
+        }
+    }
+
+    private List<ADMESavepoint> popSavepoints() {
+        final int last = savepointNames.size() - 1;
+        savepointNames.remove(last);
+        return savepoints.remove(last);
+    }
+
+    /**
+     * Yield the transaction of every database, there must be no open savepoint.
+     *
+     * @param sleepAfterYieldDelay see {@link SQLiteDatabase#yieldIfContendedSafely(long)}
+     * @return true if at least one transaction has been yielded
+     */
+    boolean yieldIfContendedSafely(long sleepAfterYieldDelay) {
+        boolean yielded = false;
+        for (SQLiteDatabase db : databases.values()) {
+            if (db.yieldIfContendedSafely(sleepAfterYieldDelay)) {
+                yielded = true;
+            }
+        }
+        return yielded;
+    }
+
+    void setTransactionSuccessful() {
+        for (SQLiteDatabase db : databases.values()) {
+            db.setTransactionSuccessful();
+        }
+    }
+
+    /**
+     * End the transaction of every database, even if ending one of them fails.
+     */
+    void endTransaction() {
+        RuntimeException failure = null;
+        for (SQLiteDatabase db : databases.values()) {
+            try {
+                db.endTransaction();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        databases.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
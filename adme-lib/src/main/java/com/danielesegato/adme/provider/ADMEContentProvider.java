@@ -1,20 +1,44 @@
 package com.danielesegato.adme.provider;
 
+import android.annotation.TargetApi;
 import android.content.ContentProvider;
 import android.content.ContentProviderOperation;
 import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteTransactionListener;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
 import android.util.SparseArray;
 
+import com.danielesegato.adme.InternalADMEConsts;
+import com.danielesegato.adme.db.ADMEBatchYieldMode;
+import com.danielesegato.adme.config.ADMEConfigUtils;
+import com.danielesegato.adme.config.ADMEEntityConfig;
+import com.danielesegato.adme.db.ADMEDatabaseMaintenance;
+import com.danielesegato.adme.db.ADMEDatabaseTuning;
+import com.danielesegato.adme.db.ADMEExpirySweeper;
+import com.danielesegato.adme.db.ADMESavepoint;
+import com.danielesegato.adme.diagnostics.ADMEMetricsListener;
+import com.danielesegato.adme.diagnostics.ADMEQueryPlanInspector;
+import com.danielesegato.adme.diagnostics.ADMESlowOperationLog;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Ease up the implementation of Content Providers by letting the provider split the different
@@ -28,11 +52,16 @@ import java.util.Set;
  * <li>Properly handling transactions</li>
  * <li>Batch operations support</li>
  * <li>related URI notification handling (very useful when you have a view or a join uri)</li>
+ * <li>Reader / writer split: queries use {@link #getReadableDb()}, writes use {@link #getDb()}</li>
+ * <li>Optional routing of the components to different databases, see {@link #getDb(String)}</li>
+ * <li>Optional group commit of concurrent single writes, see {@link #createGroupCommitWriter()}</li>
+ * <li>Optional coalescing of the change notifications, see {@link #createNotificationCoalescer()}</li>
+ * <li>Deletion of the expired rows of the entities, see {@link #sweepExpiredRows()}</li>
+ * <li>Incremental vacuum and optimization of the databases, see {@link #runDatabaseMaintenance()}</li>
  * </ul>
  * <p/>
  * TODO features:
  * <ul>
- * <li>Support for syncToNetwork notifications</li>
  * <li>Support for non-DB operations (File stream etc..)</li>
  * </ul>
  */
@@ -42,10 +71,22 @@ public abstract class ADMEContentProvider extends ContentProvider {
      * Maximum number of operations allowed in a batch between yield points.
      */
     private static final int YIELD_MAX_OPERATIONS_PER_YIELD_POINT = 500;
+    /**
+     * Maximum time, in milliseconds, a batch in {@link ADMEBatchYieldMode#AUTO} mode runs without yielding.
+     */
+    private static final long YIELD_MAX_MILLIS_PER_YIELD_POINT = 500L;
     private static final long YIELD_SLEEP_AFTER_YIELD_DELAY = 300L;
+    private static final String BATCH_SAVEPOINT = "adme_batch";
     private final ThreadLocal<Boolean> tNotifyChange = new ThreadLocal<Boolean>();
+    // number of yields of the bulk insert running in the current thread
+    private final ThreadLocal<int[]> tBulkInsertYields = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
     private final ThreadLocal<Set<Uri>> tNotifyUris = new ThreadLocal<Set<Uri>>();
-    private final ThreadLocal<Boolean> tApplyingBatch = new ThreadLocal<Boolean>();
+    private final ThreadLocal<ADMEBatchTransaction> tBatchTransaction = new ThreadLocal<ADMEBatchTransaction>();
     private static final SQLiteTransactionListener DUMMY_TRANSACTION_LISTENER = new SQLiteTransactionListener() {
         @Override
         public void onBegin() {
@@ -75,13 +116,35 @@ public abstract class ADMEContentProvider extends ContentProvider {
     private SparseArray<ADMEContentProviderComponent> components;
     private int componentId = 0;
     private UriMatcher uriMatcher;
+    private ADMEForeignKeyGraph foreignKeyGraph;
     private volatile boolean componentsRegistered = false;
     private SQLiteTransactionListener transactionListener = DUMMY_TRANSACTION_LISTENER;
+    private volatile ADMEQueryPlanInspector queryPlanInspector;
+    private volatile ADMEMetricsListener metricsListener;
+    private volatile ADMESlowOperationLog slowOperationLog;
+    // the database instances already tuned, by database key ("" for the default database)
+    private final Map<String, SQLiteDatabase> tunedDbs = new ConcurrentHashMap<String, SQLiteDatabase>();
+    private final Map<String, SQLiteDatabase> tunedReadableDbs = new ConcurrentHashMap<String, SQLiteDatabase>();
+    private final ADMEBatchTransaction.Host batchTransactionHost = new ADMEBatchTransaction.Host() {
+        @Override
+        public SQLiteDatabase beginTransaction(String databaseKey) {
+            final SQLiteDatabase db = getTunedDb(databaseKey);
+            beginWriteTransaction(db, databaseKey);
+            return db;
+        }
+    };
+    private volatile boolean groupCommitWriterCreated = false;
+    private ADMEGroupCommitWriter groupCommitWriter;
+    private volatile boolean notificationCoalescerCreated = false;
+    private ADMENotificationCoalescer notificationCoalescer;
+    private volatile boolean databaseMaintenanceCreated = false;
+    private ADMEDatabaseMaintenance databaseMaintenance;
 
     @Override
     public boolean onCreate() {
         uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
         components = new SparseArray<ADMEContentProviderComponent>();
+        foreignKeyGraph = new ADMEForeignKeyGraph();
         return false;
     }
 
@@ -109,8 +172,13 @@ public abstract class ADMEContentProvider extends ContentProvider {
         int componentId = ++this.componentId;
         component.setContext(getContext());
         component.setAuthority(getAuthority());
+        component.setForeignKeyGraph(foreignKeyGraph);
+        component.setContentProvider(this);
+        foreignKeyGraph.addComponent(component);
         final Uri componentUri = component.getUri();
-        uriMatcher.addURI(componentUri.getAuthority(), component.getBaseUriPath(), componentId);
+        for (String path : component.getUriPaths()) {
+            uriMatcher.addURI(componentUri.getAuthority(), path, componentId);
+        }
         components.put(componentId, component);
         return componentId;
     }
@@ -123,6 +191,15 @@ public abstract class ADMEContentProvider extends ContentProvider {
      * @throws java.lang.IllegalArgumentException if the uri doesn't match any registered component
      */
     private ADMEContentProviderComponent getComponent(Uri uri) throws IllegalArgumentException {
+        registerComponentsIfNeeded();
+        int uriType = uriMatcher.match(uri);
+        if (uriType == -1) {
+            throw new IllegalArgumentException("Unknown URI: " + uri);
+        }
+        return components.get(uriType);
+    }
+
+    private void registerComponentsIfNeeded() {
         // "working" double check locking with volatile field variable
         // see http://stackoverflow.com/questions/5717090/double-checked-locking-in-android/5717977
         // fadden comments in the accepted answer, he is a Dalvik / Art developer at Google
@@ -136,11 +213,12 @@ public abstract class ADMEContentProvider extends ContentProvider {
                 }
             }
         }
-        int uriType = uriMatcher.match(uri);
-        if (uriType == -1) {
-            throw new IllegalArgumentException("Unknown URI: " + uri);
-        }
-        return components.get(uriType);
+    }
+
+    private boolean isSyncToNetwork(Uri uri) {
+        // related Uris may not belong to any component
+        final int uriType = uriMatcher.match(uri);
+        return uriType != -1 && components.get(uriType).isSyncToNetwork(uri);
     }
 
     /**
@@ -150,10 +228,256 @@ public abstract class ADMEContentProvider extends ContentProvider {
      */
     public abstract SQLiteDatabase getDb();
 
+    /**
+     * Getter for the database of the components with the given
+     * {@link ADMEContentProviderComponent#getDatabaseKey()}.
+     * <p/>
+     * Override it to route some components to their own database file: every file has its own
+     * connection and write lock, so that the writes of high churn tables (ex. caches, telemetry) don't
+     * block the writes of the other tables. A batch writing in more than one database opens a
+     * transaction on each of them, committed one after the other at the end of the batch: the
+     * batch is not atomic across databases.
+     *
+     * @param databaseKey the key of the database, null for the default one
+     * @return the database, by default {@link #getDb()} for the null key
+     * @throws IllegalArgumentException if the key is unknown
+     */
+    public SQLiteDatabase getDb(String databaseKey) {
+        if (databaseKey == null) {
+            return getDb();
+        }
+        throw new IllegalArgumentException(String.format(
+                "Unknown database %s, override getDb(String) to provide it", databaseKey));
+    }
+
+    /**
+     * Override to tune the database connection, the tuning is applied the first time the database
+     * is used by this provider.
+     *
+     * @return the tuning profile or null (default) to keep the database defaults
+     * @see ADMEDatabaseTuning
+     */
+    protected ADMEDatabaseTuning getDatabaseTuning() {
+        return null;
+    }
+
+    /**
+     * Override to tune the databases of {@link #getDb(String)} differently from the default one.
+     *
+     * @param databaseKey the key of the database, null for the default one
+     * @return the tuning profile, by default {@link #getDatabaseTuning()}
+     */
+    protected ADMEDatabaseTuning getDatabaseTuning(String databaseKey) {
+        return getDatabaseTuning();
+    }
+
+    /**
+     * Getter for the database used to run queries, by default the same returned by {@link #getDb()}.
+     * <p/>
+     * When the database is in write ahead logging mode (see {@link #getDatabaseTuning()}) Android
+     * 4.1+ runs the queries issued outside of a transaction on a pool of read only connections,
+     * concurrently with the writer. On older versions you can override this method to return a
+     * separate read only database opened on the same file.
+     * <p/>
+     * The queries performed while applying a batch always use {@link #getDb()} to see the batch changes.
+     *
+     * @return returns the database used by the content provider for queries
+     */
+    public SQLiteDatabase getReadableDb() {
+        return getDb();
+    }
+
+    /**
+     * Getter for the database used to run the queries of the components with the given
+     * {@link ADMEContentProviderComponent#getDatabaseKey()}.
+     *
+     * @param databaseKey the key of the database, null for the default one
+     * @return the database for queries, by default {@link #getReadableDb()} for the null key and
+     * {@link #getDb(String)} otherwise
+     */
+    public SQLiteDatabase getReadableDb(String databaseKey) {
+        return databaseKey == null ? getReadableDb() : getDb(databaseKey);
+    }
+
+    /**
+     * @return <em>true</em> if queries can run concurrently with writes, by default when the
+     * {@link #getDatabaseTuning()} enable write ahead logging. Writes are then performed in
+     * IMMEDIATE transactions instead of EXCLUSIVE ones, so that readers are not locked out while
+     * the write transaction is running.
+     */
+    protected boolean isConcurrentReadsEnabled() {
+        ADMEDatabaseTuning tuning = getDatabaseTuning();
+        return tuning != null && tuning.getJournalMode() == ADMEDatabaseTuning.JournalMode.WAL;
+    }
+
+    /**
+     * @param databaseKey the key of the database, null for the default one
+     * @return <em>true</em> if queries can run concurrently with writes on the database, by
+     * default {@link #isConcurrentReadsEnabled()} for the null key and when its
+     * {@link #getDatabaseTuning(String)} enable write ahead logging otherwise
+     */
+    protected boolean isConcurrentReadsEnabled(String databaseKey) {
+        if (databaseKey == null) {
+            return isConcurrentReadsEnabled();
+        }
+        ADMEDatabaseTuning tuning = getDatabaseTuning(databaseKey);
+        return tuning != null && tuning.getJournalMode() == ADMEDatabaseTuning.JournalMode.WAL;
+    }
+
+    private SQLiteDatabase getTunedDb(String databaseKey) {
+        SQLiteDatabase db = getDb(databaseKey);
+        applyTuning(tunedDbs, databaseKey, db);
+        return db;
+    }
+
+    private SQLiteDatabase getTunedReadableDb(String databaseKey) {
+        SQLiteDatabase writableDb = getTunedDb(databaseKey);
+        SQLiteDatabase db = getReadableDb(databaseKey);
+        if (db != writableDb) {
+            applyTuning(tunedReadableDbs, databaseKey, db);
+        }
+        return db;
+    }
+
+    private void applyTuning(Map<String, SQLiteDatabase> tunedDbs, String databaseKey, SQLiteDatabase db) {
+        final String tunedKey = databaseKey != null ? databaseKey : "";
+        if (tunedDbs.get(tunedKey) == db) {
+            return;
+        }
+        synchronized (this) {
+            if (tunedDbs.get(tunedKey) != db) {
+                ADMEDatabaseTuning tuning = getDatabaseTuning(databaseKey);
+                if (tuning != null) {
+                    tuning.apply(db);
+                }
+                tunedDbs.put(tunedKey, db);
+            }
+        }
+    }
+
+    /**
+     * Override to enable the group commit of the single insert / update / delete requests, invoked
+     * once the first time the content provider writes.
+     *
+     * @return the group commit writer or null (default) to commit every write in its own transaction
+     * @see ADMEGroupCommitWriter
+     */
+    protected ADMEGroupCommitWriter createGroupCommitWriter() {
+        return null;
+    }
+
+    private ADMEGroupCommitWriter getGroupCommitWriter() {
+        boolean groupCommitWriterCreated = this.groupCommitWriterCreated;
+        if (!groupCommitWriterCreated) {
+            synchronized (this) {
+                groupCommitWriterCreated = this.groupCommitWriterCreated;
+                if (!groupCommitWriterCreated) {
+                    groupCommitWriter = createGroupCommitWriter();
+                    if (groupCommitWriter != null) {
+                        groupCommitWriter.start(new ADMEGroupCommitWriter.Host() {
+                            // only accessed by the writer thread
+                            private long groupStart;
+
+                            @Override
+                            public SQLiteDatabase beginGroup() {
+                                groupStart = System.nanoTime();
+                                SQLiteDatabase db = getTunedDb(null);
+                                beginWriteTransaction(db, null);
+                                return db;
+                            }
+
+                            @Override
+                            public void onGroupCommitted() {
+                                final ADMEMetricsListener metricsListener = ADMEContentProvider.this.metricsListener;
+                                if (metricsListener != null) {
+                                    metricsListener.onTransaction(System.nanoTime() - groupStart, 0);
+                                }
+                                notifyChangeNow();
+                            }
+
+                            @Override
+                            public void onGroupRolledBack() {
+                                getNotificationUris().clear();
+                            }
+                        });
+                    }
+                    this.groupCommitWriterCreated = true;
+                }
+            }
+        }
+        final ADMEGroupCommitWriter groupCommitWriter = this.groupCommitWriter;
+        return groupCommitWriter != null && !groupCommitWriter.isWriterThread() ? groupCommitWriter : null;
+    }
+
+    private void beginWriteTransaction(SQLiteDatabase db, String databaseKey) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && isConcurrentReadsEnabled(databaseKey)) {
+            db.beginTransactionWithListenerNonExclusive(transactionListener);
+        } else {
+            db.beginTransactionWithListener(transactionListener);
+        }
+    }
+
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
         ADMEContentProviderComponent component = getComponent(uri);
-        Cursor cursor = component.query(getDb(), uri, projection, selection, selectionArgs, sortOrder);
+        captureQuery(component, uri, projection, selection, selectionArgs, sortOrder);
+        SQLiteDatabase db = getQueryDb(component);
+        final long start = System.nanoTime();
+        Cursor cursor = component.query(db, uri, projection, selection, selectionArgs, sortOrder);
+        return onQueryCompleted(db, component, uri, projection, selection, selectionArgs, sortOrder, cursor, start);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
+        ADMEContentProviderComponent component = getComponent(uri);
+        captureQuery(component, uri, projection, selection, selectionArgs, sortOrder);
+        SQLiteDatabase db = getQueryDb(component);
+        final long start = System.nanoTime();
+        Cursor cursor = component.query(db, uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+        return onQueryCompleted(db, component, uri, projection, selection, selectionArgs, sortOrder, cursor, start);
+    }
+
+    private SQLiteDatabase getQueryDb(ADMEContentProviderComponent component) {
+        final String databaseKey = component.getDatabaseKey();
+        final ADMEBatchTransaction batchTransaction = tBatchTransaction.get();
+        if (batchTransaction != null) {
+            // queries of a batch must see its uncommitted changes, they run on the writer
+            final SQLiteDatabase db = batchTransaction.getJoinedDatabase(databaseKey);
+            if (db != null) {
+                return db;
+            }
+        }
+        return getTunedReadableDb(databaseKey);
+    }
+
+    /**
+     * @return the database to write in, joining the batch transaction if a batch is being applied
+     */
+    private SQLiteDatabase getWriteDb(ADMEContentProviderComponent component) {
+        final ADMEBatchTransaction batchTransaction = tBatchTransaction.get();
+        if (batchTransaction != null) {
+            return batchTransaction.getDatabase(component.getDatabaseKey());
+        }
+        return getTunedDb(component.getDatabaseKey());
+    }
+
+    private Cursor onQueryCompleted(SQLiteDatabase db, ADMEContentProviderComponent component, Uri uri, String[] projection, String selection,
+                                    String[] selectionArgs, String sortOrder, Cursor cursor, long start) {
+        final ADMEMetricsListener metricsListener = this.metricsListener;
+        final ADMESlowOperationLog slowOperationLog = this.slowOperationLog;
+        if (metricsListener != null || slowOperationLog != null) {
+            // the query is actually executed when the cursor window is filled
+            final int rows = cursor != null ? cursor.getCount() : 0;
+            final long duration = System.nanoTime() - start;
+            if (metricsListener != null) {
+                metricsListener.onOperation(component.getBaseUriPath(), ADMEMetricsListener.Operation.QUERY, duration, rows);
+            }
+            if (slowOperationLog != null && slowOperationLog.isSlow(duration)) {
+                slowOperationLog.record(db, uri, ADMEMetricsListener.Operation.QUERY, duration, rows, selection, selectionArgs, sortOrder,
+                        component.getQuerySql(uri, projection, selection, sortOrder));
+            }
+        }
         if (cursor != null && component.isAutoSetNotificationUriOnQuery()) {
             cursor.setNotificationUri(getContext().getContentResolver(), uri);
         }
@@ -162,136 +486,219 @@ public abstract class ADMEContentProvider extends ContentProvider {
 
     @Override
     public String getType(Uri uri) {
-        return getComponent(uri).getType();
+        return getComponent(uri).getType(uri);
     }
 
     @Override
-    public Uri insert(Uri uri, ContentValues contentValues) {
-        ADMEContentProviderComponent component = getComponent(uri);
-        SQLiteDatabase db = getDb();
-        Uri result = null;
+    public Uri insert(final Uri uri, final ContentValues contentValues) {
+        final ADMEContentProviderComponent component = getComponent(uri);
         boolean applyingBatch = applyingBatch();
+        final ADMEMetricsListener metricsListener = this.metricsListener;
+        final long start = System.nanoTime();
+        // the group commit writer only writes in the default database
+        ADMEGroupCommitWriter groupCommitWriter = applyingBatch || component.getDatabaseKey() != null ? null : getGroupCommitWriter();
+        if (groupCommitWriter != null) {
+            final Uri result = groupCommitWriter.submit(new ADMEGroupCommitWriter.Write<Uri>() {
+                @Override
+                public Uri execute(SQLiteDatabase db) {
+                    Uri result = component.insert(db, uri, contentValues);
+                    if (result != null) {
+                        component.updateNotificationUris(getNotificationUris(), uri, ADMEOperation.INSERT);
+                    }
+                    return result;
+                }
+            });
+            recordOperation(metricsListener, component, uri, ADMEMetricsListener.Operation.INSERT, start, result != null ? 1 : 0, null, null);
+            return result;
+        }
+        SQLiteDatabase db = getWriteDb(component);
+        Uri result = null;
         if (!applyingBatch) {
-            db.beginTransactionWithListener(transactionListener);
+            final long transactionStart = metricsListener != null ? System.nanoTime() : 0L;
+            beginWriteTransaction(db, component.getDatabaseKey());
             try {
                 result = component.insert(db, uri, contentValues);
                 if (result != null) {
-                    component.updateNotificationUris(getNotificationUris(), uri);
+                    component.updateNotificationUris(getNotificationUris(), uri, ADMEOperation.INSERT);
                 }
                 db.setTransactionSuccessful();
             } finally {
                 db.endTransaction();
             }
+            if (metricsListener != null) {
+                metricsListener.onTransaction(System.nanoTime() - transactionStart, 0);
+            }
             notifyChangeNow();
         } else {
             result = component.insert(db, uri, contentValues);
             if (result != null) {
-                component.updateNotificationUris(getNotificationUris(), uri);
+                component.updateNotificationUris(getNotificationUris(), uri, ADMEOperation.INSERT);
                 tNotifyChange.set(true);
             }
         }
+        recordOperation(metricsListener, component, uri, ADMEMetricsListener.Operation.INSERT, start, result != null ? 1 : 0, null, null);
         return result;
     }
 
     @Override
-    public int delete(Uri uri, String where, String[] selectionArgs) {
-        ADMEContentProviderComponent component = getComponent(uri);
-        SQLiteDatabase db = getDb();
-        int count = 0;
+    public int delete(final Uri uri, final String where, final String[] selectionArgs) {
+        final ADMEContentProviderComponent component = getComponent(uri);
         boolean applyingBatch = applyingBatch();
+        final ADMEMetricsListener metricsListener = this.metricsListener;
+        final long start = System.nanoTime();
+        // the group commit writer only writes in the default database
+        ADMEGroupCommitWriter groupCommitWriter = applyingBatch || component.getDatabaseKey() != null ? null : getGroupCommitWriter();
+        if (groupCommitWriter != null) {
+            final int count = groupCommitWriter.submit(new ADMEGroupCommitWriter.Write<Integer>() {
+                @Override
+                public Integer execute(SQLiteDatabase db) {
+                    int count = component.delete(db, uri, where, selectionArgs);
+                    if (count > 0) {
+                        component.updateNotificationUris(getNotificationUris(), uri, ADMEOperation.DELETE);
+                    }
+                    return count;
+                }
+            });
+            recordOperation(metricsListener, component, uri, ADMEMetricsListener.Operation.DELETE, start, count, where, selectionArgs);
+            return count;
+        }
+        SQLiteDatabase db = getWriteDb(component);
+        int count = 0;
         if (!applyingBatch) {
-            db.beginTransactionWithListener(transactionListener);
+            final long transactionStart = metricsListener != null ? System.nanoTime() : 0L;
+            beginWriteTransaction(db, component.getDatabaseKey());
             try {
                 count = component.delete(db, uri, where, selectionArgs);
                 if (count > 0) {
-                    component.updateNotificationUris(getNotificationUris(), uri);
+                    component.updateNotificationUris(getNotificationUris(), uri, ADMEOperation.DELETE);
                 }
                 db.setTransactionSuccessful();
             } finally {
                 db.endTransaction();
             }
+            if (metricsListener != null) {
+                metricsListener.onTransaction(System.nanoTime() - transactionStart, 0);
+            }
             notifyChangeNow();
         } else {
             count = component.delete(db, uri, where, selectionArgs);
             if (count > 0) {
-                component.updateNotificationUris(getNotificationUris(), uri);
+                component.updateNotificationUris(getNotificationUris(), uri, ADMEOperation.DELETE);
                 tNotifyChange.set(true);
             }
         }
+        recordOperation(metricsListener, component, uri, ADMEMetricsListener.Operation.DELETE, start, count, where, selectionArgs);
         return count;
     }
 
     @Override
-    public int update(Uri uri, ContentValues values, String where, String[] selectionArgs) {
-        ADMEContentProviderComponent component = getComponent(uri);
-        SQLiteDatabase db = getDb();
-        int count = 0;
+    public int update(final Uri uri, final ContentValues values, final String where, final String[] selectionArgs) {
+        final ADMEContentProviderComponent component = getComponent(uri);
         boolean applyingBatch = applyingBatch();
+        final ADMEMetricsListener metricsListener = this.metricsListener;
+        final long start = System.nanoTime();
+        // the group commit writer only writes in the default database
+        ADMEGroupCommitWriter groupCommitWriter = applyingBatch || component.getDatabaseKey() != null ? null : getGroupCommitWriter();
+        if (groupCommitWriter != null) {
+            final int count = groupCommitWriter.submit(new ADMEGroupCommitWriter.Write<Integer>() {
+                @Override
+                public Integer execute(SQLiteDatabase db) {
+                    int count = component.update(db, uri, values, where, selectionArgs);
+                    if (count > 0) {
+                        component.updateNotificationUris(getNotificationUris(), uri, ADMEOperation.UPDATE);
+                    }
+                    return count;
+                }
+            });
+            recordOperation(metricsListener, component, uri, ADMEMetricsListener.Operation.UPDATE, start, count, where, selectionArgs);
+            return count;
+        }
+        SQLiteDatabase db = getWriteDb(component);
+        int count = 0;
         if (!applyingBatch) {
-            db.beginTransactionWithListener(transactionListener);
+            final long transactionStart = metricsListener != null ? System.nanoTime() : 0L;
+            beginWriteTransaction(db, component.getDatabaseKey());
             try {
                 count = component.update(db, uri, values, where, selectionArgs);
                 if (count > 0) {
-                    component.updateNotificationUris(getNotificationUris(), uri);
+                    component.updateNotificationUris(getNotificationUris(), uri, ADMEOperation.UPDATE);
                 }
                 db.setTransactionSuccessful();
             } finally {
                 db.endTransaction();
             }
+            if (metricsListener != null) {
+                metricsListener.onTransaction(System.nanoTime() - transactionStart, 0);
+            }
             notifyChangeNow();
         } else {
             count = component.update(db, uri, values, where, selectionArgs);
             if (count > 0) {
-                component.updateNotificationUris(getNotificationUris(), uri);
+                component.updateNotificationUris(getNotificationUris(), uri, ADMEOperation.UPDATE);
             }
         }
+        recordOperation(metricsListener, component, uri, ADMEMetricsListener.Operation.UPDATE, start, count, where, selectionArgs);
         return count;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] valuesTable) {
         ADMEContentProviderComponent component = getComponent(uri);
-        SQLiteDatabase db = getDb();
-        int numValues = valuesTable.length;
-        db.beginTransactionWithListener(transactionListener);
-        int ypCount = 0;
-        boolean success = false;
+        SQLiteDatabase db = getTunedDb(component.getDatabaseKey());
+        if (valuesTable.length == 0) {
+            return 0;
+        }
+        final ADMEMetricsListener metricsListener = this.metricsListener;
+        final long start = System.nanoTime();
+        final int[] ypCount = tBulkInsertYields.get();
+        ypCount[0] = 0;
+        beginWriteTransaction(db, component.getDatabaseKey());
+        int count;
         try {
-            for (int i = 0; i < numValues; i++) {
-                Uri result = component.insert(db, uri, valuesTable[i]);
-                if (result != null) {
-                    component.updateNotificationUris(getNotificationUris(), uri);
-                    tNotifyChange.set(true);
-                }
-                if (db.yieldIfContendedSafely()) {
-                    ypCount++;
-                }
+            count = component.bulkInsert(db, uri, valuesTable);
+            if (count > 0) {
+                component.updateNotificationUris(getNotificationUris(), uri, ADMEOperation.INSERT);
+                tNotifyChange.set(true);
             }
             db.setTransactionSuccessful();
-            success = true;
         } finally {
             db.endTransaction();
-            if (success || ypCount > 0) {
-                notifyChangeNowIfNeeded();
-            }
+            notifyChangeNowIfNeeded();
+        }
+        if (metricsListener != null) {
+            // the yields are performed by the component, counted by onBulkInsertYield()
+            metricsListener.onTransaction(System.nanoTime() - start, ypCount[0]);
         }
-        return numValues;
+        recordOperation(metricsListener, component, uri, ADMEMetricsListener.Operation.BULK_INSERT, start, count, null, null);
+        return count;
     }
 
     @Override
     public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
             throws OperationApplicationException {
+        final ADMEBatchTransaction enclosingBatchTransaction = tBatchTransaction.get();
+        if (enclosingBatchTransaction != null) {
+            return applyNestedBatch(operations, enclosingBatchTransaction);
+        }
         int ypCount = 0;
         int opCount = 0;
-        SQLiteDatabase db = getDb();
-        db.beginTransactionWithListener(transactionListener);
+        final ADMEBatchYieldMode yieldMode = getBatchYieldMode(operations);
+        final boolean isolateSubBatches = isSubBatchIsolationEnabled(operations);
+        long lastYieldTime = SystemClock.uptimeMillis();
+        final ADMEMetricsListener metricsListener = this.metricsListener;
+        final long start = metricsListener != null ? System.nanoTime() : 0L;
+        // the databases join the batch transaction the first time an operation uses them
+        final ADMEBatchTransaction batchTransaction = new ADMEBatchTransaction(batchTransactionHost);
         boolean success = false;
         try {
-            tApplyingBatch.set(true);
+            tBatchTransaction.set(batchTransaction);
             final int numOperations = operations.size();
             final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+            boolean subBatchOpen = false;
+            int subBatchStart = 0;
+            boolean subBatchFailed = false;
             for (int i = 0; i < numOperations; i++) {
-                if (++opCount > getMaxOperationsPerYield()) {
+                if (++opCount > getMaxOperationsPerYield() && yieldMode == ADMEBatchYieldMode.STRICT) {
                     throw new OperationApplicationException(
                             String.format("Too many content provider operations between yield points. The maximum number of operations per yield point is %d",
                                     getMaxOperationsPerYield())
@@ -299,30 +706,357 @@ public abstract class ADMEContentProvider extends ContentProvider {
                     );
                 }
                 final ContentProviderOperation operation = operations.get(i);
-                if (i > 0 && operation.isYieldAllowed()) {
+                boolean yieldPoint;
+                switch (yieldMode) {
+                    case AUTO:
+                        yieldPoint = operation.isYieldAllowed()
+                                || opCount > getMaxOperationsPerYield()
+                                || SystemClock.uptimeMillis() - lastYieldTime >= getMaxMillisPerYield();
+                        break;
+                    case ATOMIC:
+                        yieldPoint = false;
+                        break;
+                    default:
+                        yieldPoint = operation.isYieldAllowed();
+                        break;
+                }
+                if (i > 0 && yieldPoint) {
+                    if (subBatchOpen) {
+                        // the transaction can't be yielded with an open savepoint
+                        batchTransaction.releaseSavepoint();
+                        subBatchOpen = false;
+                    }
+                    subBatchFailed = false;
                     opCount = 0;
-                    if (db.yieldIfContendedSafely(YIELD_SLEEP_AFTER_YIELD_DELAY)) {
+                    lastYieldTime = SystemClock.uptimeMillis();
+                    if (batchTransaction.yieldIfContendedSafely(YIELD_SLEEP_AFTER_YIELD_DELAY)) {
                         ypCount++;
                     }
                 }
-                results[i] = operation.apply(this, results, i);
+                if (!isolateSubBatches) {
+                    results[i] = operation.apply(this, results, i);
+                    continue;
+                }
+                if (subBatchFailed) {
+                    // the rest of a failed sub-batch is skipped
+                    continue;
+                }
+                if (!subBatchOpen) {
+                    batchTransaction.beginSavepoint(BATCH_SAVEPOINT);
+                    subBatchOpen = true;
+                    subBatchStart = i;
+                }
+                try {
+                    results[i] = operation.apply(this, results, i);
+                } catch (Exception e) {
+                    rollbackSubBatch(batchTransaction, results, subBatchStart, i, e);
+                    subBatchOpen = false;
+                    subBatchFailed = true;
+                }
             }
-            db.setTransactionSuccessful();
+            if (subBatchOpen) {
+                batchTransaction.releaseSavepoint();
+            }
+            batchTransaction.setTransactionSuccessful();
             success = true;
             return results;
         } finally {
-            tApplyingBatch.set(false);
-            db.endTransaction();
+            tBatchTransaction.remove();
+            batchTransaction.endTransaction();
+            if (success && metricsListener != null) {
+                final long duration = System.nanoTime() - start;
+                metricsListener.onTransaction(duration, ypCount);
+                metricsListener.onOperation(null, ADMEMetricsListener.Operation.APPLY_BATCH, duration, operations.size());
+            }
             if (success || ypCount > 0) {
                 notifyChangeNowIfNeeded();
             }
         }
     }
 
+    /**
+     * A batch applied while applying another one, ex. by a component, runs in a savepoint: if it
+     * fails only its own changes are rolled back and the enclosing batch can go on.
+     */
+    private ContentProviderResult[] applyNestedBatch(ArrayList<ContentProviderOperation> operations, ADMEBatchTransaction batchTransaction)
+            throws OperationApplicationException {
+        final int batchDepth = batchTransaction.getDepth();
+        batchTransaction.beginSavepoint(BATCH_SAVEPOINT + batchDepth);
+        boolean released = false;
+        try {
+            batchTransaction.setDepth(batchDepth + 1);
+            final int numOperations = operations.size();
+            final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+            // a nested batch never yields, the enclosing transaction can't be committed here
+            for (int i = 0; i < numOperations; i++) {
+                results[i] = operations.get(i).apply(this, results, i);
+            }
+            batchTransaction.releaseSavepoint();
+            released = true;
+            return results;
+        } finally {
+            batchTransaction.setDepth(batchDepth);
+            if (!released) {
+                batchTransaction.rollbackSavepoint();
+            }
+        }
+    }
+
+    private static void rollbackSubBatch(ADMEBatchTransaction batchTransaction, ContentProviderResult[] results, int start, int failed, Exception e) {
+        Log.w(InternalADMEConsts.LOGTAG, String.format("Operation %d of the batch failed, rolling back the sub-batch starting at operation %d", failed, start), e);
+        batchTransaction.rollbackSavepoint();
+        Arrays.fill(results, start, failed + 1, null);
+    }
+
+    /**
+     * Whether every sub-batch of a batch, the operations between two yield points, is applied in
+     * its own savepoint: a failing sub-batch is rolled back alone, its results and the ones of its
+     * skipped operations are null, and the rest of the batch is committed. Without yield points
+     * (ex. {@link ADMEBatchYieldMode#ATOMIC}) the whole batch is a single sub-batch.
+     * <p/>
+     * By default the isolation is enabled when the caller asks for it with the
+     * {@link ADMESavepoint#QUERY_PARAMETER} of the first operation Uri.
+     *
+     * @param operations the operations of the batch
+     * @return true to isolate the sub-batches
+     */
+    protected boolean isSubBatchIsolationEnabled(ArrayList<ContentProviderOperation> operations) {
+        return ADMESavepoint.isSubBatchIsolationRequested(operations);
+    }
+
+    /**
+     * Delete the expired rows of the components storing an entity with an
+     * {@link com.danielesegato.adme.annotation.ADMEEntity#expiryColumn()}, a chunk per transaction,
+     * then release the free pages of the swept databases and notify the change of every swept
+     * component once.
+     * <p/>
+     * Call it from a background thread, ex. from a periodic job through
+     * {@link android.content.ContentResolver#call(Uri, String, String, Bundle)} with the
+     * {@link ADMEExpirySweeper#CALL_METHOD} method. Must not be called while applying a batch.
+     *
+     * @return the number of rows deleted
+     */
+    public int sweepExpiredRows() {
+        registerComponentsIfNeeded();
+        final ADMEExpirySweeper expirySweeper = createExpirySweeper();
+        final long now = System.currentTimeMillis();
+        // the keys of the databases to vacuum, null for the default database
+        final Set<String> sweptDatabaseKeys = new HashSet<String>();
+        int count = 0;
+        for (int i = 0; i < components.size(); i++) {
+            final ADMEContentProviderComponent component = components.valueAt(i);
+            if (component.getEntityClass() == null) {
+                continue;
+            }
+            final ADMEEntityConfig<?> entityConfig = ADMEConfigUtils.lookupADMEEntityConfig(component.getEntityClass());
+            if (!entityConfig.hasExpiry()) {
+                continue;
+            }
+            final String databaseKey = component.getDatabaseKey();
+            final SQLiteDatabase db = getTunedDb(databaseKey);
+            int componentCount = 0;
+            int chunkCount;
+            do {
+                beginWriteTransaction(db, databaseKey);
+                try {
+                    chunkCount = expirySweeper.sweepChunk(db, entityConfig, now);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                componentCount += chunkCount;
+            } while (chunkCount > 0);
+            if (componentCount > 0) {
+                component.updateNotificationUris(getNotificationUris(), component.getUri(), ADMEOperation.DELETE);
+                sweptDatabaseKeys.add(databaseKey);
+                count += componentCount;
+            }
+        }
+        for (String databaseKey : sweptDatabaseKeys) {
+            expirySweeper.incrementalVacuum(getTunedDb(databaseKey));
+        }
+        notifyChangeNow();
+        return count;
+    }
+
+    /**
+     * Override to customize the chunk size and the vacuum of {@link #sweepExpiredRows()}.
+     *
+     * @return the expiry sweeper, a default one unless overridden
+     */
+    protected ADMEExpirySweeper createExpirySweeper() {
+        return new ADMEExpirySweeper();
+    }
+
+    /**
+     * Run the {@link ADMEDatabaseMaintenance} of the default database and of the databases of the
+     * components: release their free pages, in bounded steps, and optimize them on schedule.
+     * <p/>
+     * Call it from a background thread while the app is idle, ex. from a job requiring the device
+     * to be idle through {@link android.content.ContentResolver#call(Uri, String, String, Bundle)}
+     * with the {@link ADMEDatabaseMaintenance#CALL_METHOD} method. Must not be called while
+     * applying a batch.
+     *
+     * @return the number of pages released
+     */
+    public int runDatabaseMaintenance() {
+        registerComponentsIfNeeded();
+        final ADMEDatabaseMaintenance databaseMaintenance = getDatabaseMaintenance();
+        // the keys of the databases, null for the default database
+        final Set<String> databaseKeys = new HashSet<String>();
+        databaseKeys.add(null);
+        for (int i = 0; i < components.size(); i++) {
+            databaseKeys.add(components.valueAt(i).getDatabaseKey());
+        }
+        int releasedPages = 0;
+        for (String databaseKey : databaseKeys) {
+            releasedPages += databaseMaintenance.run(getTunedDb(databaseKey));
+        }
+        return releasedPages;
+    }
+
+    /**
+     * Override to customize the thresholds and the schedule of {@link #runDatabaseMaintenance()},
+     * invoked once the first time the maintenance runs.
+     *
+     * @return the database maintenance, a default one unless overridden
+     */
+    protected ADMEDatabaseMaintenance createDatabaseMaintenance() {
+        return new ADMEDatabaseMaintenance();
+    }
+
+    private ADMEDatabaseMaintenance getDatabaseMaintenance() {
+        boolean databaseMaintenanceCreated = this.databaseMaintenanceCreated;
+        if (!databaseMaintenanceCreated) {
+            synchronized (this) {
+                databaseMaintenanceCreated = this.databaseMaintenanceCreated;
+                if (!databaseMaintenanceCreated) {
+                    databaseMaintenance = createDatabaseMaintenance();
+                    this.databaseMaintenanceCreated = true;
+                }
+            }
+        }
+        return databaseMaintenance;
+    }
+
+    /**
+     * Handle the {@link ADMEExpirySweeper#CALL_METHOD} method, returning the number of rows deleted
+     * in the {@link ADMEExpirySweeper#EXTRA_ROWS} extra, and the
+     * {@link ADMEDatabaseMaintenance#CALL_METHOD} method, returning the number of pages released in
+     * the {@link ADMEDatabaseMaintenance#EXTRA_PAGES} extra.
+     *
+     * @throws SecurityException if the caller is not allowed to run the method, see
+     *                           {@link #isCallAllowed(String)}
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public Bundle call(String method, String arg, Bundle extras) {
+        if ((ADMEExpirySweeper.CALL_METHOD.equals(method) || ADMEDatabaseMaintenance.CALL_METHOD.equals(method))
+                && !isCallAllowed(method)) {
+            throw new SecurityException(String.format(
+                    "Caller uid %d is not allowed to call method %s", Binder.getCallingUid(), method));
+        }
+        if (ADMEExpirySweeper.CALL_METHOD.equals(method)) {
+            final Bundle result = new Bundle();
+            result.putInt(ADMEExpirySweeper.EXTRA_ROWS, sweepExpiredRows());
+            return result;
+        }
+        if (ADMEDatabaseMaintenance.CALL_METHOD.equals(method)) {
+            final Bundle result = new Bundle();
+            result.putInt(ADMEDatabaseMaintenance.EXTRA_PAGES, runDatabaseMaintenance());
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Check the caller of the {@link ADMEExpirySweeper#CALL_METHOD} and
+     * {@link ADMEDatabaseMaintenance#CALL_METHOD} methods: the platform doesn't enforce the read /
+     * write permissions of the provider on {@link #call(String, String, Bundle)}. By default only
+     * this app (same uid) and the callers holding the write permission of the provider are allowed.
+     *
+     * @param method the method called
+     * @return true if the caller can run the method
+     */
+    protected boolean isCallAllowed(String method) {
+        if (Binder.getCallingUid() == Process.myUid()) {
+            return true;
+        }
+        final String writePermission = getWritePermission();
+        return writePermission != null
+                && getContext().checkCallingOrSelfPermission(writePermission) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    /**
+     * Set a listener receiving the metrics of the operations of this provider.
+     *
+     * @param metricsListener the listener or null (default) to stop recording the metrics
+     * @see com.danielesegato.adme.diagnostics.ADMEHistogramMetrics
+     */
+    public void setMetricsListener(ADMEMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    private void recordOperation(ADMEMetricsListener metricsListener, ADMEContentProviderComponent component, Uri uri,
+                                 ADMEMetricsListener.Operation operation, long start, int rows, String selection, String[] selectionArgs) {
+        final long duration = System.nanoTime() - start;
+        if (metricsListener != null) {
+            metricsListener.onOperation(component.getBaseUriPath(), operation, duration, rows);
+        }
+        final ADMESlowOperationLog slowOperationLog = this.slowOperationLog;
+        if (slowOperationLog != null && slowOperationLog.isSlow(duration)) {
+            slowOperationLog.record(null, uri, operation, duration, rows, selection, selectionArgs, null, null);
+        }
+    }
+
+    /**
+     * Set a log recording the operations of this provider slower than its threshold, with the plan
+     * of the slow queries when the component provides their SQL through
+     * {@link ADMEContentProviderComponent#getQuerySql(Uri, String[], String, String)}.
+     *
+     * @param slowOperationLog the log or null (default) to stop recording the slow operations
+     */
+    public void setSlowOperationLog(ADMESlowOperationLog slowOperationLog) {
+        this.slowOperationLog = slowOperationLog;
+    }
+
+    /**
+     * Set an inspector capturing the queries executed by the components of this provider, the
+     * components must override {@link ADMEContentProviderComponent#getQuerySql(Uri, String[], String, String)}
+     * for their queries to be captured. Meant for debug builds.
+     *
+     * @param queryPlanInspector the inspector or null to stop capturing the queries
+     */
+    public void setQueryPlanInspector(ADMEQueryPlanInspector queryPlanInspector) {
+        this.queryPlanInspector = queryPlanInspector;
+    }
+
+    private void captureQuery(ADMEContentProviderComponent component, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        final ADMEQueryPlanInspector queryPlanInspector = this.queryPlanInspector;
+        if (queryPlanInspector != null) {
+            final String sql = component.getQuerySql(uri, projection, selection, sortOrder);
+            if (sql != null) {
+                queryPlanInspector.captureQuery(uri, sql, selectionArgs);
+            }
+        }
+    }
+
     protected void setTransactionListener(SQLiteTransactionListener transactionListener) {
         this.transactionListener = transactionListener != null ? transactionListener : DUMMY_TRANSACTION_LISTENER;
     }
 
+    /**
+     * Called by a component when it yields a bulk insert transaction. The rows inserted so far are
+     * committed, notify them even if the bulk insert fails afterward.
+     */
+    void onBulkInsertYield(ADMEContentProviderComponent component, Uri uri, int insertedRows) {
+        tBulkInsertYields.get()[0]++;
+        if (insertedRows > 0) {
+            component.updateNotificationUris(getNotificationUris(), uri, ADMEOperation.INSERT);
+            tNotifyChange.set(true);
+        }
+    }
+
     protected void notifyChangeNowIfNeeded() {
         if (tNotifyChange.get() != null && tNotifyChange.get()) {
             tNotifyChange.set(false);
@@ -330,13 +1064,49 @@ public abstract class ADMEContentProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Override to coalesce the change notifications and send them from a background thread,
+     * invoked once the first time the content provider notifies a change.
+     *
+     * @return the notification coalescer or null (default) to notify the changes right after
+     * every transaction
+     * @see ADMENotificationCoalescer
+     */
+    protected ADMENotificationCoalescer createNotificationCoalescer() {
+        return null;
+    }
+
+    private ADMENotificationCoalescer getNotificationCoalescer() {
+        boolean notificationCoalescerCreated = this.notificationCoalescerCreated;
+        if (!notificationCoalescerCreated) {
+            synchronized (this) {
+                notificationCoalescerCreated = this.notificationCoalescerCreated;
+                if (!notificationCoalescerCreated) {
+                    notificationCoalescer = createNotificationCoalescer();
+                    if (notificationCoalescer != null) {
+                        notificationCoalescer.start(getContext().getContentResolver());
+                    }
+                    this.notificationCoalescerCreated = true;
+                }
+            }
+        }
+        return notificationCoalescer;
+    }
+
     private void notifyChangeNow() {
+        final ADMEMetricsListener metricsListener = this.metricsListener;
+        if (metricsListener != null && !getNotificationUris().isEmpty()) {
+            metricsListener.onNotification(getNotificationUris().size());
+        }
+        final ADMENotificationCoalescer notificationCoalescer = getNotificationCoalescer();
         for (Uri uri : getNotificationUris()) {
-            // TODO syncToNetwork should be decided by the component when inserting / updating / deleting
-            // The idea is that you change the DB locally then set syncToNetwork = true to wake up the
-            // SyncAdapter which will use the content provider again to actually update the remote content
-            // when the content is modified locally and should be synced remotely we should pass true here
-            getContext().getContentResolver().notifyChange(uri, null, false);
+            // the SyncAdapter uploads the local changes when syncToNetwork is true
+            final boolean syncToNetwork = isSyncToNetwork(uri);
+            if (notificationCoalescer != null) {
+                notificationCoalescer.notifyChange(uri, syncToNetwork);
+            } else {
+                getContext().getContentResolver().notifyChange(uri, null, syncToNetwork);
+            }
         }
         getNotificationUris().clear();
     }
@@ -354,7 +1124,7 @@ public abstract class ADMEContentProvider extends ContentProvider {
     }
 
     private boolean applyingBatch() {
-        return tApplyingBatch.get() != null && tApplyingBatch.get();
+        return tBatchTransaction.get() != null;
     }
 
     /**
@@ -363,4 +1133,23 @@ public abstract class ADMEContentProvider extends ContentProvider {
     protected int getMaxOperationsPerYield() {
         return YIELD_MAX_OPERATIONS_PER_YIELD_POINT;
     }
+
+    /**
+     * @return Maximum time, in milliseconds, a batch in {@link ADMEBatchYieldMode#AUTO} mode runs
+     * without a yield point.
+     */
+    protected long getMaxMillisPerYield() {
+        return YIELD_MAX_MILLIS_PER_YIELD_POINT;
+    }
+
+    /**
+     * Choose how a batch yields its transaction, by default {@link ADMEBatchYieldMode#STRICT} unless
+     * the caller requested another mode with the {@link ADMEBatchYieldMode#QUERY_PARAMETER}.
+     *
+     * @param operations the operations of the batch
+     * @return the yield mode of the batch
+     */
+    protected ADMEBatchYieldMode getBatchYieldMode(ArrayList<ContentProviderOperation> operations) {
+        return ADMEBatchYieldMode.fromOperations(operations, ADMEBatchYieldMode.STRICT);
+    }
 }
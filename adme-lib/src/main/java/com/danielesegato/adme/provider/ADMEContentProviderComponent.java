@@ -1,14 +1,27 @@
 package com.danielesegato.adme.provider;
 
+import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import com.danielesegato.adme.InternalADMEConsts;
+import com.danielesegato.adme.utils.SQLStringHelper;
 
 import java.net.URI;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -19,10 +32,14 @@ public abstract class ADMEContentProviderComponent {
     protected static final String URI_SCHEME = ADMEContentProvider.URI_SCHEME;
     protected static final String CONTENT_TYPE_DIR_PREFIX = "vnd.android.cursor.dir/vnd.";
     protected static final String CONTENT_TYPE_ITEM_PREFIX = "vnd.android.cursor.item/vnd.";
+    private static final String LOGTAG = InternalADMEConsts.LOGTAG;
+    private static final int BULK_INSERT_ROWS_PER_YIELD_POINT = 100;
 
     private Context context;
     private String authority;
     private Uri uri;
+    private ADMEForeignKeyGraph foreignKeyGraph;
+    private ADMEContentProvider contentProvider;
 
     public static final Uri buildUri(String scheme, String authority, String path) {
         return ADMEContentProvider.buildUri(scheme, authority, path);
@@ -40,6 +57,17 @@ public abstract class ADMEContentProviderComponent {
      */
     public abstract String getBaseUriPath();
 
+    /**
+     * The paths registered in the content provider {@link android.content.UriMatcher} for this
+     * component, by default only the {@link #getBaseUriPath()}. Override to answer to more Uris,
+     * ex. <code>getBaseUriPath() + "/#"</code> for single items.
+     *
+     * @return the paths, in the {@link android.content.UriMatcher#addURI(String, String, int)} format
+     */
+    protected String[] getUriPaths() {
+        return new String[]{getBaseUriPath()};
+    }
+
     /**
      * Subclasses can override this method to build their custom {@link android.net.Uri}
      *
@@ -58,6 +86,30 @@ public abstract class ADMEContentProviderComponent {
         return uri;
     }
 
+    /**
+     * Override to declare the {@link com.danielesegato.adme.annotation.ADMEEntity} class stored by
+     * this component. It lets the content provider know the foreign keys between its components and
+     * notify the components modified by the ON DELETE / ON UPDATE actions of a write, see
+     * {@link #getForeignKeyRelatedUris(Uri, ADMEOperation)}.
+     *
+     * @return the entity class or null (default) if unknown
+     */
+    public Class<?> getEntityClass() {
+        return null;
+    }
+
+    /**
+     * Override to store the data of this component in a database other than the default one of the
+     * content provider, ex. to keep a cache or an append-only log from contending the write lock of
+     * the user data. The content provider opens the database with
+     * {@link ADMEContentProvider#getDb(String)}.
+     *
+     * @return the key of the database or null (default) for the default database
+     */
+    public String getDatabaseKey() {
+        return null;
+    }
+
     /**
      * Performs a query on the entity managed by this component
      *
@@ -71,6 +123,45 @@ public abstract class ADMEContentProviderComponent {
      */
     public abstract Cursor query(SQLiteDatabase db, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder);
 
+    /**
+     * The equivalent of the {@link #query(SQLiteDatabase, Uri, String[], String, String[], String)}
+     * method (with {@link CancellationSignal} variant), by default it ignores the cancellation signal.
+     * <p/>
+     * Override it to pass the cancellation signal to the database query, ex.
+     * {@link SQLiteDatabase#query(boolean, String, String[], String, String[], String, String, String, String, CancellationSignal)},
+     * so that the query of an abandoned loader is interrupted.
+     *
+     * @param cancellationSignal A signal to cancel the operation in progress, or null if none. If
+     *                           the operation is canceled, then
+     *                           {@link android.os.OperationCanceledException} will be thrown when
+     *                           the query is executed.
+     * @return a Cursor or null.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Cursor query(SQLiteDatabase db, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
+        return query(db, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    /**
+     * Return the SQL statement executed by {@link #query(SQLiteDatabase, Uri, String[], String, String[], String)}
+     * for the given arguments. It is only used for diagnostics, by default it returns null (unknown).
+     * <p/>
+     * Override it to let the {@link com.danielesegato.adme.diagnostics.ADMEQueryPlanInspector}
+     * capture the queries of this component, ex:
+     * <pre>
+     *     return ADMEQueryPlanInspector.buildQuerySql(TABLE, projection, selection, sortOrder);
+     * </pre>
+     *
+     * @param uri        the URI of the query
+     * @param projection the list of columns to put into the cursor
+     * @param selection  the selection criteria
+     * @param sortOrder  the sort order
+     * @return the SQL statement or null
+     */
+    public String getQuerySql(Uri uri, String[] projection, String selection, String sortOrder) {
+        return null;
+    }
+
     /**
      * Inserts value in the entity managed by this component.
      * <p/>
@@ -83,6 +174,130 @@ public abstract class ADMEContentProviderComponent {
      */
     public abstract Uri insert(SQLiteDatabase db, Uri uri, ContentValues contentValues);
 
+    /**
+     * Inserts multiple rows in the entity managed by this component, invoked by the content
+     * provider inside a transaction. Returns the number of inserted rows.
+     * <p/>
+     * If {@link #getBulkInsertTable(Uri)} returns a table the rows are inserted directly in it
+     * with one compiled statement for each distinct set of columns, bypassing
+     * {@link #insert(SQLiteDatabase, Uri, ContentValues)}. As with
+     * {@link SQLiteDatabase#insert(String, String, ContentValues)} a row which can't be inserted
+     * is logged and skipped. Otherwise (default) {@link #insert(SQLiteDatabase, Uri, ContentValues)}
+     * is called for each row.
+     * <p/>
+     * The transaction is yielded, if contended, every {@link #getBulkInsertRowsPerYield()} rows,
+     * see {@link #yieldBulkInsertIfContended(SQLiteDatabase, Uri, int)}.
+     *
+     * @param db          the current db
+     * @param uri         The content:// URI of the insertion request.
+     * @param valuesTable the rows to insert
+     * @return the number of inserted rows
+     */
+    public int bulkInsert(SQLiteDatabase db, Uri uri, ContentValues[] valuesTable) {
+        final String table = getBulkInsertTable(uri);
+        final int rowsPerYield = getBulkInsertRowsPerYield();
+        int count = 0;
+        if (table == null) {
+            for (int i = 0; i < valuesTable.length; i++) {
+                if (insert(db, uri, valuesTable[i]) != null) {
+                    count++;
+                }
+                if ((i + 1) % rowsPerYield == 0) {
+                    yieldBulkInsertIfContended(db, uri, count);
+                }
+            }
+            return count;
+        }
+        final Map<String, BulkInsertStatement> statements = new HashMap<String, BulkInsertStatement>();
+        BulkInsertStatement statement = null;
+        try {
+            for (int i = 0; i < valuesTable.length; i++) {
+                final ContentValues values = valuesTable[i];
+                if (statement == null || !statement.matches(values)) {
+                    final String[] columns = getSortedColumns(values);
+                    final String key = Arrays.toString(columns);
+                    statement = statements.get(key);
+                    if (statement == null) {
+                        statement = new BulkInsertStatement(db, table, columns);
+                        statements.put(key, statement);
+                    }
+                }
+                try {
+                    if (statement.insert(values) != -1) {
+                        count++;
+                    }
+                } catch (SQLException e) {
+                    Log.e(LOGTAG, String.format("Error inserting %s in %s", values, table), e);
+                }
+                if ((i + 1) % rowsPerYield == 0) {
+                    yieldBulkInsertIfContended(db, uri, count);
+                }
+            }
+        } finally {
+            for (BulkInsertStatement bulkInsertStatement : statements.values()) {
+                bulkInsertStatement.close();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Yield the bulk insert transaction if another thread is waiting for the database. The rows
+     * inserted so far are committed by the yield, the content provider notifies them even if the
+     * bulk insert fails afterward.
+     *
+     * @param db           the current db
+     * @param uri          The content:// URI of the insertion request.
+     * @param insertedRows the number of rows inserted so far
+     * @return true if the transaction has been yielded
+     */
+    protected boolean yieldBulkInsertIfContended(SQLiteDatabase db, Uri uri, int insertedRows) {
+        if (!db.yieldIfContendedSafely()) {
+            return false;
+        }
+        if (contentProvider != null) {
+            contentProvider.onBulkInsertYield(this, uri, insertedRows);
+        }
+        return true;
+    }
+
+    /**
+     * @param values the values of a row
+     * @return the columns of the values, sorted
+     */
+    static String[] getSortedColumns(ContentValues values) {
+        // ContentValues.keySet() is only available from Android 3.0
+        final String[] columns = new String[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            columns[i++] = entry.getKey();
+        }
+        Arrays.sort(columns);
+        return columns;
+    }
+
+    /**
+     * Override to let {@link #bulkInsert(SQLiteDatabase, Uri, ContentValues[])} insert the rows
+     * directly in a table with compiled statements. Only do this if
+     * {@link #insert(SQLiteDatabase, Uri, ContentValues)} doesn't do anything else than inserting
+     * the values in the table.
+     *
+     * @param uri the URI of the bulk insert
+     * @return the table to insert the rows in or null (default) to call
+     * {@link #insert(SQLiteDatabase, Uri, ContentValues)} for every row
+     */
+    protected String getBulkInsertTable(Uri uri) {
+        return null;
+    }
+
+    /**
+     * @return number of rows inserted by {@link #bulkInsert(SQLiteDatabase, Uri, ContentValues[])}
+     * between yield points.
+     */
+    protected int getBulkInsertRowsPerYield() {
+        return BULK_INSERT_ROWS_PER_YIELD_POINT;
+    }
+
     /**
      * Deletes one or more rows for the  entity managed by this component
      *
@@ -114,6 +329,14 @@ public abstract class ADMEContentProviderComponent {
         return String.format("%s%s.%s", CONTENT_TYPE_DIR_PREFIX, getAuthority(), getBaseUriPath());
     }
 
+    /**
+     * @param uri the Uri of the request
+     * @return the data type of the Uri, by default {@link #getType()}
+     */
+    public String getType(Uri uri) {
+        return getType();
+    }
+
     /**
      * Update the list of Uris to be notified of a change when the transaction is over.
      *
@@ -127,6 +350,41 @@ public abstract class ADMEContentProviderComponent {
         }
     }
 
+    /**
+     * Update the list of Uris to be notified of a change when the transaction is over, called by
+     * the content provider after every write.
+     * <p/>
+     * By default it calls {@link #updateNotificationUris(java.util.Set, android.net.Uri)} then adds
+     * the {@link #getForeignKeyRelatedUris(Uri, ADMEOperation)}.
+     *
+     * @param currentNotificationUris set of {@link android.net.Uri}s that are already to be notified in this transaction.
+     * @param modifiedUri             the {@link android.net.Uri} the Uri which has been modified
+     * @param operation               the operation which modified the Uri
+     */
+    protected void updateNotificationUris(Set<Uri> currentNotificationUris, Uri modifiedUri, ADMEOperation operation) {
+        updateNotificationUris(currentNotificationUris, modifiedUri);
+        currentNotificationUris.addAll(getForeignKeyRelatedUris(modifiedUri, operation));
+    }
+
+    /**
+     * Provide the Uris of the other components of the content provider modified by the foreign key
+     * actions (CASCADE, SET NULL, SET DEFAULT) of a change of this component, transitively.
+     * <p/>
+     * Only the components declaring their {@link #getEntityClass()} are known, the actions are only
+     * performed by SQLite if foreign keys are enabled on the database connection.
+     *
+     * @param modifiedUri the {@link android.net.Uri} which has been modified
+     * @param operation   the operation which modified the Uri
+     * @return the Uris of the dependent components
+     */
+    protected Collection<? extends Uri> getForeignKeyRelatedUris(Uri modifiedUri, ADMEOperation operation) {
+        final Class<?> entityClass = getEntityClass();
+        if (entityClass == null || foreignKeyGraph == null) {
+            return Collections.emptySet();
+        }
+        return foreignKeyGraph.getDependentUris(entityClass, operation);
+    }
+
     /**
      * Provide a collection of related {@link android.net.Uri}s related to the uri being modified.
      * This is the set of Uri that are to be considered modified when the given modifiedUri is changed (insert/update/delete)
@@ -147,6 +405,17 @@ public abstract class ADMEContentProviderComponent {
         return Collections.emptySet();
     }
 
+    /**
+     * Whether the change notification of an Uri of this component should request a sync to the
+     * network, waking up the sync adapter of the authority to upload the local changes.
+     *
+     * @param uri the notified Uri, as modified by the write
+     * @return true to request a sync, default is false
+     */
+    protected boolean isSyncToNetwork(Uri uri) {
+        return false;
+    }
+
     /**
      * Called when the Uri for this component is ready to be set in some static field.
      *
@@ -163,6 +432,14 @@ public abstract class ADMEContentProviderComponent {
         return context;
     }
 
+    void setForeignKeyGraph(ADMEForeignKeyGraph foreignKeyGraph) {
+        this.foreignKeyGraph = foreignKeyGraph;
+    }
+
+    void setContentProvider(ADMEContentProvider contentProvider) {
+        this.contentProvider = contentProvider;
+    }
+
     void setAuthority(String authority) {
         this.authority = authority;
     }
@@ -174,4 +451,56 @@ public abstract class ADMEContentProviderComponent {
     protected boolean isAutoSetNotificationUriOnQuery() {
         return true;
     }
+
+    private static final class BulkInsertStatement {
+        private final String[] columns;
+        private final SQLiteStatement statement;
+
+        BulkInsertStatement(SQLiteDatabase db, String table, String[] columns) {
+            this.columns = columns;
+            StringBuilder sb = new StringBuilder(128);
+            sb.append("INSERT INTO ");
+            SQLStringHelper.appendEscapedEntityOrField(sb, table);
+            if (columns.length == 0) {
+                sb.append(" DEFAULT VALUES");
+            } else {
+                sb.append(" (");
+                for (int i = 0; i < columns.length; i++) {
+                    if (i > 0) {
+                        sb.append(", ");
+                    }
+                    SQLStringHelper.appendEscapedEntityOrField(sb, columns[i]);
+                }
+                sb.append(") VALUES (");
+                for (int i = 0; i < columns.length; i++) {
+                    sb.append(i > 0 ? ", ?" : "?");
+                }
+                sb.append(")");
+            }
+            statement = db.compileStatement(sb.toString());
+        }
+
+        boolean matches(ContentValues values) {
+            if (values.size() != columns.length) {
+                return false;
+            }
+            for (String column : columns) {
+                if (!values.containsKey(column)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long insert(ContentValues values) {
+            for (int i = 0; i < columns.length; i++) {
+                DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(columns[i]));
+            }
+            return statement.executeInsert();
+        }
+
+        void close() {
+            statement.close();
+        }
+    }
 }
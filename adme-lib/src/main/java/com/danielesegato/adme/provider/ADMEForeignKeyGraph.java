@@ -0,0 +1,102 @@
+package com.danielesegato.adme.provider;
+
+import android.net.Uri;
+
+import com.danielesegato.adme.config.ADMEConfigUtils;
+import com.danielesegato.adme.config.ADMEEntityConfig;
+import com.danielesegato.adme.config.ADMEFieldConfig;
+import com.danielesegato.adme.config.OnForeignUpdateDelete;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The foreign keys between the entities of the components of an {@link ADMEContentProvider}, used
+ * to know which components are modified by the ON DELETE / ON UPDATE actions of a write.
+ * <p/>
+ * Only the components returning their {@link ADMEContentProviderComponent#getEntityClass()} are
+ * part of the graph.
+ */
+class ADMEForeignKeyGraph {
+    private final List<ADMEContentProviderComponent> components = new ArrayList<ADMEContentProviderComponent>();
+    private final Map<Class<?>, Set<Uri>> deleteDependentUris = new HashMap<Class<?>, Set<Uri>>();
+    private final Map<Class<?>, Set<Uri>> updateDependentUris = new HashMap<Class<?>, Set<Uri>>();
+
+    synchronized void addComponent(ADMEContentProviderComponent component) {
+        components.add(component);
+        deleteDependentUris.clear();
+        updateDependentUris.clear();
+    }
+
+    /**
+     * @param entityClass the class of the modified entity
+     * @param operation   the operation performed on the entity
+     * @return the Uris of the components whose rows are modified by the foreign keys actions
+     * triggered by the operation
+     */
+    synchronized Set<Uri> getDependentUris(Class<?> entityClass, ADMEOperation operation) {
+        final Map<Class<?>, Set<Uri>> cache;
+        switch (operation) {
+            case DELETE:
+                cache = deleteDependentUris;
+                break;
+            case UPDATE:
+                cache = updateDependentUris;
+                break;
+            default:
+                // inserting a row never triggers a foreign key action
+                return Collections.emptySet();
+        }
+        Set<Uri> uris = cache.get(entityClass);
+        if (uris == null) {
+            uris = new LinkedHashSet<Uri>();
+            collectDependentUris(entityClass, operation, uris, new HashSet<Class<?>>());
+            uris = Collections.unmodifiableSet(uris);
+            cache.put(entityClass, uris);
+        }
+        return uris;
+    }
+
+    private void collectDependentUris(Class<?> entityClass, ADMEOperation operation, Set<Uri> uris, Set<Class<?>> visited) {
+        if (!visited.add(entityClass)) {
+            return;
+        }
+        for (ADMEContentProviderComponent component : components) {
+            final Class<?> dependentClass = component.getEntityClass();
+            if (dependentClass == null) {
+                continue;
+            }
+            final ADMEEntityConfig<?> dependentConfig = ADMEConfigUtils.lookupADMEEntityConfig(dependentClass);
+            for (ADMEFieldConfig fieldConfig : dependentConfig.getFieldsConfig()) {
+                if (!fieldConfig.isForeign()
+                        || fieldConfig.getForeignFieldConfig().getADMEEntityConfig().getJavaClass() != entityClass) {
+                    continue;
+                }
+                final OnForeignUpdateDelete action = operation == ADMEOperation.DELETE
+                        ? fieldConfig.getForeignOnDelete() : fieldConfig.getForeignOnUpdate();
+                switch (action) {
+                    case CASCADE:
+                        uris.add(component.getUri());
+                        if (operation == ADMEOperation.DELETE) {
+                            // the dependent rows are deleted in turn
+                            collectDependentUris(dependentClass, ADMEOperation.DELETE, uris, visited);
+                        }
+                        break;
+                    case SET_NULL:
+                    case SET_DEFAULT:
+                        // only the foreign key column changes, never the referenced ID
+                        uris.add(component.getUri());
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.danielesegato.adme.provider;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.danielesegato.adme.InternalADMEConsts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commit writer for the {@link ADMEContentProvider}: the single insert / update / delete
+ * requests coming from concurrent callers are queued to one writer thread which executes them in
+ * a shared transaction, paying one commit (and fsync) for the whole group.
+ * <p/>
+ * A group is committed as soon as it contains {@link #getMaxWritesPerCommit()} writes or
+ * {@link #getWindowMillis()} milliseconds passed since its first write has been queued. A window of
+ * 0 only groups the writes queued while the previous group was being committed.
+ * <p/>
+ * The callers are blocked until the group containing their write has been committed, the change
+ * notifications are sent after the commit. If a write fails the whole group is rolled back and
+ * every write of the group is retried in its own transaction, so that a failing write never makes
+ * the others fail.
+ * <p/>
+ * Enable it by overriding {@link ADMEContentProvider#createGroupCommitWriter()}:
+ * <pre>
+ * {@literal @}Override
+ * protected ADMEGroupCommitWriter createGroupCommitWriter() {
+ *    return new ADMEGroupCommitWriter(5, 64);
+ * }
+ * </pre>
+ * Batch operations ({@link ADMEContentProvider#applyBatch(java.util.ArrayList)} and
+ * {@link ADMEContentProvider#bulkInsert(android.net.Uri, android.content.ContentValues[])}) are
+ * already executed in a single transaction and do not go through the writer.
+ */
+public class ADMEGroupCommitWriter {
+    private static final String LOGTAG = InternalADMEConsts.LOGTAG;
+    private static final String THREAD_NAME = "ADMEGroupCommitWriter";
+    private static final PendingWrite<Void> SHUTDOWN = new PendingWrite<Void>(null);
+
+    /**
+     * A write to execute inside the group transaction.
+     */
+    interface Write<R> {
+        R execute(SQLiteDatabase db);
+    }
+
+    /**
+     * The transaction and notification handling of the content provider using the writer, invoked
+     * from the writer thread.
+     */
+    interface Host {
+        /**
+         * Begin the group transaction.
+         *
+         * @return the database the transaction has been started on
+         */
+        SQLiteDatabase beginGroup();
+
+        /**
+         * The group transaction has been committed, send the change notifications.
+         */
+        void onGroupCommitted();
+
+        /**
+         * The group transaction has been rolled back, discard the change notifications.
+         */
+        void onGroupRolledBack();
+    }
+
+    private final long windowMillis;
+    private final int maxWritesPerCommit;
+    private final LinkedBlockingQueue<PendingWrite<?>> queue = new LinkedBlockingQueue<PendingWrite<?>>();
+    private Host host;
+    private Thread writerThread;
+    private boolean shutdown = false;
+
+    /**
+     * @param windowMillis       maximum time, in milliseconds, a write waits for other writes to
+     *                           join its group
+     * @param maxWritesPerCommit maximum number of writes committed in a single transaction
+     */
+    public ADMEGroupCommitWriter(long windowMillis, int maxWritesPerCommit) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid group commit window %d ms, it can't be negative", windowMillis));
+        }
+        if (maxWritesPerCommit < 1) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid maximum number of writes per commit %d, it must be at least 1", maxWritesPerCommit));
+        }
+        this.windowMillis = windowMillis;
+        this.maxWritesPerCommit = maxWritesPerCommit;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public int getMaxWritesPerCommit() {
+        return maxWritesPerCommit;
+    }
+
+    /**
+     * Stop the writer thread once the writes already queued have been committed. Any write
+     * submitted after this call fails with an {@link IllegalStateException}.
+     */
+    public synchronized void shutdown() {
+        if (!shutdown) {
+            shutdown = true;
+            if (writerThread != null) {
+                queue.add(SHUTDOWN);
+            }
+        }
+    }
+
+    synchronized void start(Host host) {
+        if (this.host != null) {
+            throw new IllegalStateException("The group commit writer is already in use by another content provider");
+        }
+        this.host = host;
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        }, THREAD_NAME);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * @return true if the current thread is the writer thread, where the writes must be executed
+     * directly to avoid a deadlock
+     */
+    boolean isWriterThread() {
+        return Thread.currentThread() == writerThread;
+    }
+
+    /**
+     * Queue a write and wait for the commit of its group.
+     *
+     * @param write the write to execute
+     * @return the value returned by the write
+     */
+    <R> R submit(Write<R> write) {
+        PendingWrite<R> pendingWrite = new PendingWrite<R>(write);
+        synchronized (this) {
+            if (shutdown) {
+                throw new IllegalStateException("The group commit writer has been shut down");
+            }
+            queue.add(pendingWrite);
+        }
+        return pendingWrite.await();
+    }
+
+    private void runWriter() {
+        final List<PendingWrite<?>> group = new ArrayList<PendingWrite<?>>(maxWritesPerCommit);
+        boolean running = true;
+        while (running) {
+            PendingWrite<?> pendingWrite = takeUninterruptibly();
+            if (pendingWrite == SHUTDOWN) {
+                break;
+            }
+            group.add(pendingWrite);
+            final long deadline = SystemClock.uptimeMillis() + windowMillis;
+            while (group.size() < maxWritesPerCommit) {
+                pendingWrite = pollUntil(deadline);
+                if (pendingWrite == null) {
+                    break;
+                }
+                if (pendingWrite == SHUTDOWN) {
+                    running = false;
+                    break;
+                }
+                group.add(pendingWrite);
+            }
+            commit(group);
+            group.clear();
+        }
+    }
+
+    private void commit(List<PendingWrite<?>> group) {
+        try {
+            SQLiteDatabase db = host.beginGroup();
+            try {
+                for (PendingWrite<?> pendingWrite : group) {
+                    pendingWrite.execute(db);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (Throwable e) {
+            host.onGroupRolledBack();
+            if (group.size() == 1) {
+                group.get(0).fail(e);
+            } else {
+                Log.w(LOGTAG, String.format("Group commit of %d writes failed, retrying each write in its own transaction", group.size()), e);
+                for (PendingWrite<?> pendingWrite : group) {
+                    commit(Collections.<PendingWrite<?>>singletonList(pendingWrite));
+                }
+            }
+            return;
+        }
+        try {
+            host.onGroupCommitted();
+        } catch (RuntimeException e) {
+            Log.e(LOGTAG, "Error notifying the changes of a group commit", e);
+        }
+        for (PendingWrite<?> pendingWrite : group) {
+            pendingWrite.done();
+        }
+    }
+
+    private PendingWrite<?> takeUninterruptibly() {
+        while (true) {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                // the writer thread is only stopped by shutdown()
+            }
+        }
+    }
+
+    private PendingWrite<?> pollUntil(long deadline) {
+        while (true) {
+            long wait = deadline - SystemClock.uptimeMillis();
+            try {
+                return wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll();
+            } catch (InterruptedException e) {
+                // the writer thread is only stopped by shutdown()
+            }
+        }
+    }
+
+    private static final class PendingWrite<R> {
+        private final Write<R> write;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private R result;
+        private Throwable error;
+
+        PendingWrite(Write<R> write) {
+            this.write = write;
+        }
+
+        void execute(SQLiteDatabase db) {
+            result = write.execute(db);
+        }
+
+        void done() {
+            error = null;
+            latch.countDown();
+        }
+
+        void fail(Throwable error) {
+            this.result = null;
+            this.error = error;
+            latch.countDown();
+        }
+
+        R await() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        // the write can't be withdrawn once queued, wait for it anyway
+                        latch.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else if (error instanceof Error) {
+                throw (Error) error;
+            } else if (error != null) {
+                throw new RuntimeException(error);
+            }
+            return result;
+        }
+    }
+}
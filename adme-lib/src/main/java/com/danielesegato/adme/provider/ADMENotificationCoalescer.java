@@ -0,0 +1,191 @@
+package com.danielesegato.adme.provider;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Coalesce the change notifications of the {@link ADMEContentProvider}: the Uris changed within
+ * {@link #getWindowMillis()} milliseconds are merged and notified once, from a background thread
+ * instead of the thread writing in the database.
+ * <p/>
+ * A Uri is not notified if one of its ancestors (ex. <code>content://authority/books</code> for
+ * <code>content://authority/books/12</code>) is notified in the same window: the
+ * {@link ContentResolver} already notifies the observers of the descendants of a changed Uri.
+ * Uris with a query or a fragment, or requesting a sync to the network, are always notified as they are.
+ * <p/>
+ * Enable it by overriding {@link ADMEContentProvider#createNotificationCoalescer()}:
+ * <pre>
+ * {@literal @}Override
+ * protected ADMENotificationCoalescer createNotificationCoalescer() {
+ *    return new ADMENotificationCoalescer(200);
+ * }
+ * </pre>
+ * The observers are notified up to {@link #getWindowMillis()} milliseconds after the transaction
+ * commit, choose a window the UI can afford.
+ */
+public class ADMENotificationCoalescer {
+    private static final String THREAD_NAME = "ADMENotificationCoalescer";
+
+    private final long windowMillis;
+    private final Runnable dispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+    private Set<Uri> pendingUris = new LinkedHashSet<Uri>();
+    private Set<Uri> pendingSyncToNetworkUris = new HashSet<Uri>();
+    private boolean dispatchScheduled = false;
+    private ContentResolver contentResolver;
+    private HandlerThread handlerThread;
+    private Handler handler;
+
+    /**
+     * @param windowMillis time, in milliseconds, the notifications are held to be merged with the
+     *                     following ones
+     */
+    public ADMENotificationCoalescer(long windowMillis) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid notification window %d ms, it can't be negative", windowMillis));
+        }
+        this.windowMillis = windowMillis;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    synchronized void start(ContentResolver contentResolver) {
+        if (this.contentResolver != null) {
+            throw new IllegalStateException("The notification coalescer is already in use by another content provider");
+        }
+        this.contentResolver = contentResolver;
+        handlerThread = new HandlerThread(THREAD_NAME, Process.THREAD_PRIORITY_BACKGROUND);
+        handlerThread.start();
+        handler = new Handler(handlerThread.getLooper());
+    }
+
+    /**
+     * Queue the change notification of the given Uris.
+     *
+     * @param uris the changed Uris
+     */
+    public synchronized void notifyChange(Collection<Uri> uris) {
+        checkStarted();
+        if (uris.isEmpty()) {
+            return;
+        }
+        pendingUris.addAll(uris);
+        scheduleDispatch();
+    }
+
+    /**
+     * Queue the change notification of an Uri.
+     *
+     * @param uri           the changed Uri
+     * @param syncToNetwork true to request a sync to the network, see
+     *                      {@link ContentResolver#notifyChange(Uri, android.database.ContentObserver, boolean)}
+     */
+    public synchronized void notifyChange(Uri uri, boolean syncToNetwork) {
+        checkStarted();
+        pendingUris.add(uri);
+        if (syncToNetwork) {
+            pendingSyncToNetworkUris.add(uri);
+        }
+        scheduleDispatch();
+    }
+
+    private void checkStarted() {
+        if (handler == null) {
+            throw new IllegalStateException("The notification coalescer is not started or has been shut down");
+        }
+    }
+
+    private void scheduleDispatch() {
+        if (!dispatchScheduled) {
+            dispatchScheduled = true;
+            handler.postDelayed(dispatchRunnable, windowMillis);
+        }
+    }
+
+    /**
+     * Notify the pending Uris, from the calling thread, and stop the background thread.
+     */
+    public void shutdown() {
+        final HandlerThread handlerThread;
+        synchronized (this) {
+            if (handler == null) {
+                return;
+            }
+            handler.removeCallbacks(dispatchRunnable);
+            handler = null;
+            handlerThread = this.handlerThread;
+            this.handlerThread = null;
+        }
+        dispatch();
+        handlerThread.quit();
+    }
+
+    private void dispatch() {
+        final Set<Uri> uris;
+        final Set<Uri> syncToNetworkUris;
+        synchronized (this) {
+            uris = pendingUris;
+            syncToNetworkUris = pendingSyncToNetworkUris;
+            pendingUris = new LinkedHashSet<Uri>();
+            pendingSyncToNetworkUris = new HashSet<Uri>();
+            dispatchScheduled = false;
+        }
+        for (Uri uri : removeDescendants(uris, syncToNetworkUris)) {
+            contentResolver.notifyChange(uri, null, syncToNetworkUris.contains(uri));
+        }
+    }
+
+    /**
+     * @param uris            a set of Uris
+     * @param keptDescendants Uris to keep even if they have an ancestor in the set
+     * @return the Uris of the set which have no ancestor in the set
+     */
+    static List<Uri> removeDescendants(Set<Uri> uris, Set<Uri> keptDescendants) {
+        final Set<String> keys = new HashSet<String>(uris.size() * 2);
+        for (Uri uri : uris) {
+            keys.add(uri.toString());
+        }
+        final List<Uri> result = new ArrayList<Uri>(uris.size());
+        for (Uri uri : uris) {
+            if (keptDescendants.contains(uri) || !hasAncestor(uri, keys)) {
+                result.add(uri);
+            }
+        }
+        return result;
+    }
+
+    private static boolean hasAncestor(Uri uri, Set<String> keys) {
+        if (uri.getQuery() != null || uri.getFragment() != null) {
+            return false;
+        }
+        String key = uri.toString();
+        // never strip the scheme and authority
+        final int rootLength = key.indexOf("//") + 2;
+        int separator = key.lastIndexOf('/');
+        while (separator > rootLength) {
+            key = key.substring(0, separator);
+            if (keys.contains(key)) {
+                return true;
+            }
+            separator = key.lastIndexOf('/');
+        }
+        return false;
+    }
+}
@@ -0,0 +1,8 @@
+package com.danielesegato.adme.provider;
+
+/**
+ * The write operations performed by an {@link ADMEContentProviderComponent}.
+ */
+public enum ADMEOperation {
+    INSERT, UPDATE, DELETE
+}
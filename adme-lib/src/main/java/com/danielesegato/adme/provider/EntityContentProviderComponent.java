@@ -0,0 +1,382 @@
+package com.danielesegato.adme.provider;
+
+import android.annotation.TargetApi;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.danielesegato.adme.InternalADMEConsts;
+import com.danielesegato.adme.config.ADMEConfigUtils;
+import com.danielesegato.adme.config.ADMEEntityConfig;
+import com.danielesegato.adme.config.ADMEFieldConfig;
+import com.danielesegato.adme.config.SQLiteType;
+import com.danielesegato.adme.db.ADMEChangeLog;
+import com.danielesegato.adme.diagnostics.ADMEQueryPlanInspector;
+import com.danielesegato.adme.utils.SQLStringHelper;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A component for the {@link ADMEContentProvider} serving the table of an
+ * {@link com.danielesegato.adme.annotation.ADMEEntity}, built from its {@link ADMEEntityConfig}.
+ * <p/>
+ * It answers to two Uris:
+ * <ul>
+ * <li>the directory Uri <code>content://{authority}/{getBaseUriPath()}</code>, the whole table</li>
+ * <li>the item Uri <code>content://{authority}/{getBaseUriPath()}/{id}</code>, a single row selected
+ * by ID (only if the entity has an ID)</li>
+ * </ul>
+ * The updates and deletes on an item Uri without further selection (Android 3.0+), and all the
+ * inserts, are executed with compiled statements reused across calls. The queries on an item Uri always
+ * produce the same SQL so that they hit the SQLite prepared statements cache.
+ * <p/>
+ * If the entity has a {@link com.danielesegato.adme.annotation.ADMEEntity#changeLog()} its change
+ * notifications request a sync to the network, unless the write comes from the sync adapter (Uri
+ * with the {@link ADMEChangeLog#CALLER_IS_SYNC_ADAPTER} query parameter): the changes of such
+ * writes are discarded from the change log, the bulk inserts of the sync adapter never yield.
+ * <p/>
+ * Usage:
+ * <pre>
+ * registerComponent(new EntityContentProviderComponent&lt;Book&gt;(Book.class));
+ * </pre>
+ *
+ * @param <T> the entity type
+ */
+public class EntityContentProviderComponent<T> extends ADMEContentProviderComponent {
+    private static final String LOGTAG = InternalADMEConsts.LOGTAG;
+    /**
+     * Maximum number of compiled statements kept for the distinct sets of inserted / updated columns.
+     */
+    private static final int MAX_CACHED_STATEMENTS = 16;
+
+    private final ADMEEntityConfig<T> entityConfig;
+    private final ADMEFieldConfig idFieldConfig;
+    private final String table;
+    private final String idSelection;
+    private final Map<String, SQLiteStatement> statementCache = new LinkedHashMap<String, SQLiteStatement>(MAX_CACHED_STATEMENTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+            if (size() > MAX_CACHED_STATEMENTS) {
+                eldest.getValue().close();
+                return true;
+            }
+            return false;
+        }
+    };
+    private SQLiteDatabase statementCacheDb;
+
+    /**
+     * @param entityClass the {@link com.danielesegato.adme.annotation.ADMEEntity} annotated class
+     */
+    public EntityContentProviderComponent(@NonNull Class<T> entityClass) {
+        this.entityConfig = ADMEConfigUtils.lookupADMEEntityConfig(entityClass);
+        this.idFieldConfig = entityConfig.getIdFieldConfig();
+        this.table = entityConfig.getEntityName();
+        if (idFieldConfig != null) {
+            final StringBuilder sb = new StringBuilder();
+            SQLStringHelper.appendQuotedIdentifier(sb, idFieldConfig.getColumnName()).append(" = ?");
+            this.idSelection = sb.toString();
+        } else {
+            this.idSelection = null;
+        }
+    }
+
+    public ADMEEntityConfig<T> getEntityConfig() {
+        return entityConfig;
+    }
+
+    @Override
+    public Class<?> getEntityClass() {
+        return entityConfig.getJavaClass();
+    }
+
+    /**
+     * @return the entity name, override to customize
+     */
+    @Override
+    public String getBaseUriPath() {
+        return table;
+    }
+
+    @Override
+    protected String[] getUriPaths() {
+        if (idFieldConfig == null) {
+            return super.getUriPaths();
+        }
+        final boolean numericId = idFieldConfig.getADMESerializer().getSQLiteType() == SQLiteType.INTEGER;
+        return new String[]{getBaseUriPath(), getBaseUriPath() + (numericId ? "/#" : "/*")};
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        if (isItemUri(uri)) {
+            return String.format("%s%s.%s", CONTENT_TYPE_ITEM_PREFIX, getAuthority(), getBaseUriPath());
+        }
+        return getType();
+    }
+
+    /**
+     * @param uri an Uri of this component
+     * @return true if the Uri selects a single row by ID
+     */
+    protected boolean isItemUri(Uri uri) {
+        return idFieldConfig != null && uri.getPathSegments().size() > getUri().getPathSegments().size();
+    }
+
+    @Override
+    public Cursor query(SQLiteDatabase db, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        if (isItemUri(uri)) {
+            return db.query(table, projection, itemSelection(selection), itemSelectionArgs(uri, selectionArgs), null, null, sortOrder);
+        }
+        return db.query(table, projection, selection, selectionArgs, null, null, sortOrder);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public Cursor query(SQLiteDatabase db, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
+        if (isItemUri(uri)) {
+            return db.query(false, table, projection, itemSelection(selection), itemSelectionArgs(uri, selectionArgs), null, null, sortOrder, null, cancellationSignal);
+        }
+        return db.query(false, table, projection, selection, selectionArgs, null, null, sortOrder, null, cancellationSignal);
+    }
+
+    @Override
+    public String getQuerySql(Uri uri, String[] projection, String selection, String sortOrder) {
+        return ADMEQueryPlanInspector.buildQuerySql(table, projection,
+                isItemUri(uri) ? itemSelection(selection) : selection, sortOrder);
+    }
+
+    @Override
+    protected String getBulkInsertTable(Uri uri) {
+        return table;
+    }
+
+    @Override
+    protected boolean isSyncToNetwork(Uri uri) {
+        return entityConfig.isChangeLog() && !ADMEChangeLog.isCallerSyncAdapter(uri);
+    }
+
+    /**
+     * @param uri the Uri of a write
+     * @return true if the changes of the write must not be logged
+     */
+    private boolean isSyncAdapterWrite(Uri uri) {
+        return entityConfig.isChangeLog() && ADMEChangeLog.isCallerSyncAdapter(uri);
+    }
+
+    @Override
+    public int bulkInsert(SQLiteDatabase db, Uri uri, ContentValues[] valuesTable) {
+        if (!isSyncAdapterWrite(uri)) {
+            return super.bulkInsert(db, uri, valuesTable);
+        }
+        // no yield, the log can only be cleaned if no one else writes in the meantime
+        final long sequence = ADMEChangeLog.getLastSequence(db);
+        int count = 0;
+        for (ContentValues values : valuesTable) {
+            if (insertRow(db, values) != null) {
+                count++;
+            }
+        }
+        ADMEChangeLog.discardChangesAfter(db, sequence);
+        return count;
+    }
+
+    @Override
+    public Uri insert(SQLiteDatabase db, Uri uri, ContentValues contentValues) {
+        if (!isSyncAdapterWrite(uri)) {
+            return insertRow(db, contentValues);
+        }
+        final long sequence = ADMEChangeLog.getLastSequence(db);
+        final Uri result = insertRow(db, contentValues);
+        ADMEChangeLog.discardChangesAfter(db, sequence);
+        return result;
+    }
+
+    private Uri insertRow(SQLiteDatabase db, ContentValues contentValues) {
+        final long rowId;
+        synchronized (statementCache) {
+            final SQLiteStatement statement = getStatement(db, "INSERT", contentValues);
+            try {
+                rowId = statement.executeInsert();
+            } catch (SQLException e) {
+                Log.e(LOGTAG, String.format("Error inserting %s in %s", contentValues, table), e);
+                return null;
+            }
+        }
+        if (rowId == -1) {
+            return null;
+        }
+        if (idFieldConfig == null) {
+            // no item Uri, ex. a multiple columns primary key
+            return getUri();
+        }
+        if (idFieldConfig.isGeneratedId()) {
+            return ContentUris.withAppendedId(getUri(), rowId);
+        }
+        // a WITHOUT ROWID table has no meaningful rowid, only the id value identifies the row
+        final String id = contentValues.getAsString(idFieldConfig.getColumnName());
+        return id != null ? Uri.withAppendedPath(getUri(), id) : getUri();
+    }
+
+    @Override
+    public int delete(SQLiteDatabase db, Uri uri, String where, String[] selectionArgs) {
+        if (!isSyncAdapterWrite(uri)) {
+            return deleteRows(db, uri, where, selectionArgs);
+        }
+        final long sequence = ADMEChangeLog.getLastSequence(db);
+        final int count = deleteRows(db, uri, where, selectionArgs);
+        ADMEChangeLog.discardChangesAfter(db, sequence);
+        return count;
+    }
+
+    private int deleteRows(SQLiteDatabase db, Uri uri, String where, String[] selectionArgs) {
+        if (!isItemUri(uri)) {
+            return db.delete(table, where, selectionArgs);
+        }
+        if (!TextUtils.isEmpty(where) || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return db.delete(table, itemSelection(where), itemSelectionArgs(uri, selectionArgs));
+        }
+        synchronized (statementCache) {
+            final SQLiteStatement statement = getStatement(db, "DELETE", null);
+            bindId(statement, 1, uri);
+            return executeUpdateDelete(statement);
+        }
+    }
+
+    @Override
+    public int update(SQLiteDatabase db, Uri uri, ContentValues values, String where, String[] selectionArgs) {
+        if (!isSyncAdapterWrite(uri)) {
+            return updateRows(db, uri, values, where, selectionArgs);
+        }
+        final long sequence = ADMEChangeLog.getLastSequence(db);
+        final int count = updateRows(db, uri, values, where, selectionArgs);
+        ADMEChangeLog.discardChangesAfter(db, sequence);
+        return count;
+    }
+
+    private int updateRows(SQLiteDatabase db, Uri uri, ContentValues values, String where, String[] selectionArgs) {
+        if (!isItemUri(uri)) {
+            return db.update(table, values, where, selectionArgs);
+        }
+        if (!TextUtils.isEmpty(where) || values.size() == 0 || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return db.update(table, values, itemSelection(where), itemSelectionArgs(uri, selectionArgs));
+        }
+        synchronized (statementCache) {
+            final SQLiteStatement statement = getStatement(db, "UPDATE", values);
+            bindId(statement, values.size() + 1, uri);
+            return executeUpdateDelete(statement);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int executeUpdateDelete(SQLiteStatement statement) {
+        return statement.executeUpdateDelete();
+    }
+
+    private static void bindId(SQLiteStatement statement, int index, Uri uri) {
+        // bound as text as the selection args, the INTEGER affinity converts a numeric id and a
+        // non numeric one matches no row
+        statement.bindString(index, uri.getLastPathSegment());
+    }
+
+    private String itemSelection(String selection) {
+        if (TextUtils.isEmpty(selection)) {
+            return idSelection;
+        }
+        return String.format("%s AND (%s)", idSelection, selection);
+    }
+
+    private static String[] itemSelectionArgs(Uri uri, String[] selectionArgs) {
+        if (selectionArgs == null || selectionArgs.length == 0) {
+            return new String[]{uri.getLastPathSegment()};
+        }
+        final String[] args = new String[selectionArgs.length + 1];
+        args[0] = uri.getLastPathSegment();
+        System.arraycopy(selectionArgs, 0, args, 1, selectionArgs.length);
+        return args;
+    }
+
+    /**
+     * Get (or compile) the statement for the given values and bind them, must be called holding the
+     * statementCache lock.
+     */
+    private SQLiteStatement getStatement(SQLiteDatabase db, String operation, ContentValues values) {
+        if (statementCacheDb != db) {
+            closeStatements();
+            statementCacheDb = db;
+        }
+        final String[] columns;
+        if (values != null) {
+            columns = getSortedColumns(values);
+        } else {
+            columns = new String[0];
+        }
+        final String key = operation + Arrays.toString(columns);
+        SQLiteStatement statement = statementCache.get(key);
+        if (statement == null) {
+            statement = db.compileStatement(buildStatementSql(operation, columns));
+            statementCache.put(key, statement);
+        }
+        statement.clearBindings();
+        for (int i = 0; i < columns.length; i++) {
+            DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(columns[i]));
+        }
+        return statement;
+    }
+
+    private String buildStatementSql(String operation, String[] columns) {
+        final StringBuilder sb = new StringBuilder(128);
+        if ("INSERT".equals(operation)) {
+            sb.append("INSERT INTO ");
+            SQLStringHelper.appendQuotedIdentifier(sb, table);
+            if (columns.length == 0) {
+                return sb.append(" DEFAULT VALUES").toString();
+            }
+            sb.append(" (");
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                SQLStringHelper.appendQuotedIdentifier(sb, columns[i]);
+            }
+            sb.append(") VALUES (");
+            for (int i = 0; i < columns.length; i++) {
+                sb.append(i > 0 ? ", ?" : "?");
+            }
+            return sb.append(")").toString();
+        } else if ("UPDATE".equals(operation)) {
+            sb.append("UPDATE ");
+            SQLStringHelper.appendQuotedIdentifier(sb, table);
+            sb.append(" SET ");
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                SQLStringHelper.appendQuotedIdentifier(sb, columns[i]).append(" = ?");
+            }
+        } else {
+            sb.append("DELETE FROM ");
+            SQLStringHelper.appendQuotedIdentifier(sb, table);
+        }
+        return sb.append(" WHERE ").append(idSelection).toString();
+    }
+
+    private void closeStatements() {
+        for (SQLiteStatement statement : statementCache.values()) {
+            statement.close();
+        }
+        statementCache.clear();
+    }
+}
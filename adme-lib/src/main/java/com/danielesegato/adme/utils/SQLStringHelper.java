@@ -14,4 +14,18 @@ public class SQLStringHelper {
     public static StringBuilder appendEscapedEntityOrField(final StringBuilder sb, final String entityOrField) {
         return sb.append('\'').append(entityOrField).append('\'');
     }
+
+    /**
+     * Utility method to add to the sb StringBuilder an identifier quoted with double quotes.
+     * <p/>
+     * Use this instead of {@link #appendEscapedEntityOrField(StringBuilder, String)} where SQLite
+     * expects an expression: there a single quoted name is a string literal, not an identifier.
+     *
+     * @param sb         the StringBuilder
+     * @param identifier the name of the entity or field
+     * @return the quoted identifier
+     */
+    public static StringBuilder appendQuotedIdentifier(final StringBuilder sb, final String identifier) {
+        return sb.append('"').append(identifier.replace("\"", "\"\"")).append('"');
+    }
 }